@@ -15,6 +15,7 @@ import org.apache.commons.lang3.Validate;
 import org.bukkit.Server;
 import org.bukkit.command.defaults.*;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.util.StringUtil;
 
 public class SimpleCommandMap implements CommandMap {
@@ -196,6 +197,23 @@ public class SimpleCommandMap implements CommandMap {
         setDefaultCommands();
     }
 
+    /**
+     * Unregisters all commands of the given plugin, under every label and
+     * alias they were registered with
+     *
+     * @param plugin Plugin whose commands to unregister
+     */
+    public synchronized void unregisterCommands(Plugin plugin) {
+        Iterator<Command> commands = knownCommands.values().iterator();
+        while (commands.hasNext()) {
+            Command command = commands.next();
+            if (command instanceof PluginIdentifiableCommand && ((PluginIdentifiableCommand) command).getPlugin() == plugin) {
+                command.unregister(this);
+                commands.remove();
+            }
+        }
+    }
+
     public Command getCommand(String name) {
         Command target = knownCommands.get(name.toLowerCase());
         return target;
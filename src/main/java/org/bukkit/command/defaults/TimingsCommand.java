@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.Validate;
 import org.bukkit.Bukkit;
@@ -12,6 +13,8 @@ import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.event.Event;
 import org.bukkit.event.HandlerList;
+import org.bukkit.plugin.HistogramRegisteredListener;
+import org.bukkit.plugin.LatencyHistogram;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.RegisteredListener;
 import org.bukkit.plugin.TimedRegisteredListener;
@@ -36,7 +39,7 @@ public class TimingsCommand extends BukkitCommand {
             sender.sendMessage(ChatColor.RED + "Usage: " + usageMessage);
             return false;
         }
-        if (!sender.getServer().getPluginManager().useTimings()) {
+        if (!sender.getServer().getPluginManager().useTimings() && !sender.getServer().getPluginManager().useTimingHistograms()) {
             sender.sendMessage("Please enable timings by setting \"settings.plugin-profiling\" to true in bukkit.yml");
             return true;
         }
@@ -47,6 +50,8 @@ public class TimingsCommand extends BukkitCommand {
                 for (RegisteredListener listener : handlerList.getRegisteredListeners()) {
                     if (listener instanceof TimedRegisteredListener) {
                         ((TimedRegisteredListener)listener).reset();
+                    } else if (listener instanceof HistogramRegisteredListener) {
+                        ((HistogramRegisteredListener)listener).getHistogram().reset();
                     }
                 }
             }
@@ -90,6 +95,15 @@ public class TimingsCommand extends BukkitCommand {
                             }
                         }
                     }
+                    for (Map.Entry<Class<? extends Event>, LatencyHistogram> entry : HistogramRegisteredListener.getHistograms(plugin).entrySet()) {
+                        LatencyHistogram histogram = entry.getValue();
+                        long count = histogram.getCount();
+                        if (count == 0) continue;
+                        long time = histogram.getTotalTime();
+                        totalTime += time;
+                        fileTimings.println("    " + entry.getKey().getSimpleName() + " Time: " + time + " Count: " + count + " Avg: " + time / count
+                                + " p50: " + histogram.getPercentile(50) + " p99: " + histogram.getPercentile(99) + " Max: " + histogram.getMax());
+                    }
                     fileTimings.println("    Total time " + totalTime + " (" + totalTime / 1000000000 + "s)");
                 }
                 sender.sendMessage("Timings written to " + timings.getPath());
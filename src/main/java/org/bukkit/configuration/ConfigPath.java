@@ -0,0 +1,156 @@
+package org.bukkit.configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A path into a {@link MemorySection}, split into its keys once so it can be
+ * reused for any number of lookups.
+ * <p>
+ * Walking a section with a split path only costs one map lookup per key,
+ * and the keys keep their hash codes between lookups. Keep frequently used
+ * paths in constants:
+ * <pre>
+ * private static final ConfigPath MAX_HOMES = ConfigPath.of("homes.max");
+ * ...
+ * int max = getConfig().getInt(MAX_HOMES);
+ * </pre>
+ * Paths are immutable and may be shared between threads.
+ */
+public final class ConfigPath {
+    private static final String[] EMPTY = new String[0];
+
+    private final String path;
+    private final char separator;
+    private final String[] keys;
+
+    private ConfigPath(final String path, final char separator, final String[] keys) {
+        this.path = path;
+        this.separator = separator;
+        this.keys = keys;
+    }
+
+    /**
+     * Splits the given path on the default path separator, '.'
+     *
+     * @param path Path to split
+     * @return the split path
+     * @throws IllegalArgumentException Thrown if path is null
+     */
+    public static ConfigPath of(String path) {
+        return of(path, '.');
+    }
+
+    /**
+     * Splits the given path on the given path separator
+     *
+     * @param path Path to split
+     * @param separator Separator between the keys of the path
+     * @return the split path
+     * @throws IllegalArgumentException Thrown if path is null
+     */
+    public static ConfigPath of(String path, char separator) {
+        org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
+
+        if (path.length() == 0) {
+            return new ConfigPath(path, separator, EMPTY);
+        }
+        if (path.indexOf(separator) == -1) {
+            return new ConfigPath(path, separator, new String[] {path});
+        }
+
+        List<String> keys = new ArrayList<String>();
+        // i1 is the leading (higher) index
+        // i2 is the trailing (lower) index
+        int i1 = -1, i2;
+        while ((i1 = path.indexOf(separator, i2 = i1 + 1)) != -1) {
+            keys.add(path.substring(i2, i1));
+        }
+        keys.add(path.substring(i2));
+
+        return new ConfigPath(path, separator, keys.toArray(new String[keys.size()]));
+    }
+
+    /**
+     * Gets the path this was split from
+     *
+     * @return the path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the separator this path was split on
+     *
+     * @return the path separator
+     */
+    public char getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Gets the number of keys in this path
+     *
+     * @return the number of keys, 0 for the empty path
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Gets one key of this path
+     *
+     * @param index Index of the key
+     * @return the key
+     * @throws IndexOutOfBoundsException Thrown if there is no such key
+     */
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Joins the keys of this path from the given index on with the given
+     * separator
+     *
+     * @param from Index of the first key to join
+     * @param separator Separator to join the keys with
+     * @return the joined keys
+     */
+    String join(int from, char separator) {
+        if (from == 0 && separator == this.separator) {
+            return path;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = from; i < keys.length; i++) {
+            if (i > from) {
+                builder.append(separator);
+            }
+            builder.append(keys[i]);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConfigPath)) {
+            return false;
+        }
+        return Arrays.equals(keys, ((ConfigPath) obj).keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(keys);
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
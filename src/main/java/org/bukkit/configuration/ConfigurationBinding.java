@@ -0,0 +1,531 @@
+package org.bukkit.configuration;
+
+import static org.bukkit.util.NumberConversions.*;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+
+/**
+ * Binds a {@link ConfigurationSection} to a record or an interface, so its
+ * values can be read as plain Java values.
+ * <p>
+ * Every record component or no-argument interface method is a property,
+ * read from the key of the same name unless it is annotated with {@link
+ * Key}. Properties may be primitives and their wrappers, strings,
+ * enums, lists, sets and maps of those, other bindable types for nested
+ * sections, or any other type stored in the configuration, such as {@link
+ * ConfigurationSerializable} values.
+ * <p>
+ * All values are converted and checked once, when binding. Numbers must fit
+ * the type of their property, so a fractional value is never truncated to an
+ * integer. Bound records are created with their canonical constructor, and
+ * reading their properties is a plain field access. Bound interfaces are
+ * {@link Proxy} instances reading their properties from an array filled
+ * when binding, falling back to their default methods for missing keys;
+ * every call goes through the proxy and boxes primitives, so records should
+ * be preferred for values read often.
+ * <p>
+ * Bound objects and their collections are immutable, and lists, sets, maps
+ * and sections bound to other types are copied into unmodifiable
+ * collections. Other values, such as {@link ConfigurationSerializable}
+ * objects, are shared with the section. Bind again to pick up changes after
+ * a reload.
+ *
+ * @param <T> the bound type
+ */
+public final class ConfigurationBinding<T> {
+    private static final ClassValue<ConfigurationBinding<?>> bindings = new ClassValue<ConfigurationBinding<?>>() {
+        @Override
+        protected ConfigurationBinding<?> computeValue(Class<?> type) {
+            return new ConfigurationBinding<Object>(type);
+        }
+    };
+
+    /**
+     * Overrides the key a property is read from
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface Key {
+        /**
+         * Gets the key of the property
+         *
+         * @return the key, which may not contain the path separator
+         */
+        String value();
+    }
+
+    private final Class<?> type;
+    private final Property[] properties;
+    private final Set<String> keys = new HashSet<String>();
+    private final Map<Method, Integer> indexes = new HashMap<Method, Integer>();
+    private final Constructor<?> constructor;
+
+    private ConfigurationBinding(final Class<?> type) {
+        org.apache.commons.lang3.Validate.isTrue(isBindable(type), type.getName() + " is not a record or an interface");
+        this.type = type;
+
+        List<Property> properties = new ArrayList<Property>();
+        if (type.isRecord()) {
+            RecordComponent[] components = type.getRecordComponents();
+            Class<?>[] parameters = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                properties.add(new Property(components[i].getAccessor(), components[i].getGenericType(), i));
+                parameters[i] = components[i].getType();
+            }
+            try {
+                constructor = type.getDeclaredConstructor(parameters);
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalArgumentException("Record " + type.getName() + " has no canonical constructor", ex);
+            }
+        } else {
+            for (Method method : type.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class) {
+                    continue;
+                }
+                boolean property = method.getParameterTypes().length == 0 && method.getReturnType() != void.class;
+                if (method.isDefault() && !property) {
+                    continue;
+                }
+                org.apache.commons.lang3.Validate.isTrue(property, "Method " + method + " is not a property");
+
+                Property bound = new Property(method, method.getGenericReturnType(), properties.size());
+                if (method.isDefault()) {
+                    // Used for missing keys
+                    bound.defaultMethod = method;
+                }
+                indexes.put(method, properties.size());
+                properties.add(bound);
+            }
+            constructor = null;
+        }
+
+        this.properties = properties.toArray(new Property[properties.size()]);
+        for (Property property : this.properties) {
+            org.apache.commons.lang3.Validate.isTrue(keys.add(property.key), "Duplicate key " + property.key + " in " + type.getName());
+        }
+    }
+
+    /**
+     * Gets the binding of the given record or interface
+     *
+     * @param <T> the bound type
+     * @param type the record or interface to bind to
+     * @return the binding, which is shared by all callers
+     * @throws IllegalArgumentException Thrown if the type is neither a record
+     *     nor an interface of properties
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ConfigurationBinding<T> of(Class<T> type) {
+        org.apache.commons.lang3.Validate.notNull(type, "Type cannot be null");
+
+        return (ConfigurationBinding<T>) bindings.get(type);
+    }
+
+    /**
+     * Gets the bound type
+     *
+     * @return the record or interface
+     */
+    @SuppressWarnings("unchecked")
+    public Class<T> getType() {
+        return (Class<T>) type;
+    }
+
+    /**
+     * Binds the values of a section, including its defaults
+     *
+     * @param section the section to bind
+     * @return the bound object with the missing and unknown keys
+     * @throws InvalidConfigurationException Thrown if a value cannot be
+     *     converted to the type of its property
+     */
+    public Result<T> bind(ConfigurationSection section) throws InvalidConfigurationException {
+        org.apache.commons.lang3.Validate.notNull(section, "Section cannot be null");
+
+        Result<T> result = new Result<T>();
+        result.value = getType().cast(bind(section, result));
+        return result;
+    }
+
+    private Object bind(ConfigurationSection section, Result<?> result) throws InvalidConfigurationException {
+        for (String key : section.getKeys(false)) {
+            if (!keys.contains(key)) {
+                result.unknownKeys.add(MemorySection.createPath(section, key));
+            }
+        }
+
+        Configuration root = section.getRoot();
+        char separator = (root == null) ? '.' : root.options().pathSeparator();
+
+        Object[] values = new Object[properties.length];
+        boolean[] missing = new boolean[properties.length];
+        for (Property property : properties) {
+            String path = MemorySection.createPath(section, property.key);
+            Object raw = section.get(property.key);
+            if (raw == null) {
+                if (property.defaultMethod == null) {
+                    result.missingKeys.add(path);
+                }
+                missing[property.index] = true;
+                values[property.index] = getZero(property.method.getReturnType());
+            } else {
+                values[property.index] = convert(raw, property.type, path, separator, result);
+            }
+        }
+
+        if (constructor != null) {
+            try {
+                return constructor.newInstance(values);
+            } catch (InvocationTargetException ex) {
+                throw new InvalidConfigurationException("Record " + type.getName() + " rejected the values of " + section.getCurrentPath(), ex.getCause());
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new BoundHandler(this, values));
+        for (Property property : properties) {
+            if (missing[property.index] && property.defaultMethod != null) {
+                try {
+                    values[property.index] = InvocationHandler.invokeDefault(proxy, property.defaultMethod);
+                } catch (Throwable ex) {
+                    throw new InvalidConfigurationException("Default of " + property.key + " in " + type.getName() + " failed", ex);
+                }
+            }
+        }
+        return proxy;
+    }
+
+    private static Object convert(Object raw, Type type, String path, char separator, Result<?> result) throws InvalidConfigurationException {
+        if (type instanceof WildcardType) {
+            return convert(raw, ((WildcardType) type).getUpperBounds()[0], path, separator, result);
+        }
+
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            Class<?> rawType = (Class<?>) parameterized.getRawType();
+            Type[] arguments = parameterized.getActualTypeArguments();
+
+            if (Map.class.isAssignableFrom(rawType)) {
+                Map<?, ?> map = (raw instanceof ConfigurationSection) ? ((ConfigurationSection) raw).getValues(false) : (raw instanceof Map) ? (Map<?, ?>) raw : null;
+                if (map == null) {
+                    throw mismatch(raw, type, path);
+                }
+                Map<String, Object> converted = new LinkedHashMap<String, Object>();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    String key = String.valueOf(entry.getKey());
+                    converted.put(key, convert(entry.getValue(), arguments[1], path + separator + key, separator, result));
+                }
+                return Collections.unmodifiableMap(converted);
+            } else if (Collection.class.isAssignableFrom(rawType)) {
+                if (!(raw instanceof Collection)) {
+                    throw mismatch(raw, type, path);
+                }
+                Collection<Object> converted = Set.class.isAssignableFrom(rawType) ? new LinkedHashSet<Object>() : new ArrayList<Object>();
+                int i = 0;
+                for (Object element : (Collection<?>) raw) {
+                    converted.add(convert(element, arguments[0], path + "[" + i++ + "]", separator, result));
+                }
+                return (converted instanceof Set) ? Collections.unmodifiableSet((Set<Object>) converted) : Collections.unmodifiableList((List<Object>) converted);
+            }
+            type = rawType;
+        }
+
+        if (!(type instanceof Class)) {
+            throw new InvalidConfigurationException("Unsupported type " + type + " at " + path);
+        }
+
+        Class<?> target = (Class<?>) type;
+        if (target == int.class || target == Integer.class) {
+            checkInteger(raw, type, path, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            return toInt(raw);
+        } else if (target == long.class || target == Long.class) {
+            checkInteger(raw, type, path, Long.MIN_VALUE, Long.MAX_VALUE);
+            return toLong(raw);
+        } else if (target == double.class || target == Double.class) {
+            checkNumber(raw, type, path);
+            return toDouble(raw);
+        } else if (target == float.class || target == Float.class) {
+            checkNumber(raw, type, path);
+            return toFloat(raw);
+        } else if (target == short.class || target == Short.class) {
+            checkInteger(raw, type, path, Short.MIN_VALUE, Short.MAX_VALUE);
+            return toShort(raw);
+        } else if (target == byte.class || target == Byte.class) {
+            checkInteger(raw, type, path, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            return toByte(raw);
+        } else if (target == boolean.class || target == Boolean.class) {
+            if (!(raw instanceof Boolean)) {
+                throw mismatch(raw, type, path);
+            }
+            return raw;
+        } else if (target == char.class || target == Character.class) {
+            if (raw instanceof Character) {
+                return raw;
+            }
+            if (raw instanceof String && ((String) raw).length() == 1) {
+                return ((String) raw).charAt(0);
+            }
+            throw mismatch(raw, type, path);
+        } else if (target == String.class) {
+            if (raw instanceof ConfigurationSection || raw instanceof Collection || raw instanceof Map) {
+                throw mismatch(raw, type, path);
+            }
+            return raw.toString();
+        } else if (target.isEnum()) {
+            return convertEnum(raw, target, path);
+        } else if (isBindable(target)) {
+            if (!(raw instanceof ConfigurationSection)) {
+                throw mismatch(raw, type, path);
+            }
+            return bindings.get(target).bind((ConfigurationSection) raw, result);
+        } else if (target.isInstance(raw)) {
+            Object copy = copy(raw);
+            if (target.isInstance(copy)) {
+                return copy;
+            }
+        }
+        throw mismatch(raw, type, path);
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof ConfigurationSection) {
+            return copy(((ConfigurationSection) value).getValues(false));
+        } else if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(copy);
+        } else if (value instanceof Set) {
+            Set<Object> copy = new LinkedHashSet<Object>();
+            for (Object element : (Set<?>) value) {
+                copy.add(copy(element));
+            }
+            return Collections.unmodifiableSet(copy);
+        } else if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object element : (Collection<?>) value) {
+                copy.add(copy(element));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object convertEnum(Object raw, Class<?> target, String path) throws InvalidConfigurationException {
+        if (target.isInstance(raw)) {
+            return raw;
+        }
+        if (raw instanceof String) {
+            String name = (String) raw;
+            try {
+                return Enum.valueOf((Class) target, name);
+            } catch (IllegalArgumentException ex) {
+                try {
+                    return Enum.valueOf((Class) target, name.trim().toUpperCase(java.util.Locale.ENGLISH).replace('-', '_').replace(' ', '_'));
+                } catch (IllegalArgumentException ex2) {
+                }
+            }
+        }
+        throw new InvalidConfigurationException("Expected one of " + Arrays.toString(target.getEnumConstants()) + " at " + path + " but found " + raw);
+    }
+
+    private static void checkNumber(Object raw, Type type, String path) throws InvalidConfigurationException {
+        if (!(raw instanceof Number)) {
+            throw mismatch(raw, type, path);
+        }
+    }
+
+    private static void checkInteger(Object raw, Type type, String path, long min, long max) throws InvalidConfigurationException {
+        checkNumber(raw, type, path);
+
+        if (raw instanceof Double || raw instanceof Float || raw instanceof BigDecimal) {
+            double value = ((Number) raw).doubleValue();
+            // NaN is not equal to itself, and max + 1 is exact even for longs
+            if (value != Math.floor(value) || value < min || value >= (double) max + 1) {
+                throw mismatch(raw, type, path);
+            }
+        } else if (raw instanceof BigInteger) {
+            BigInteger value = (BigInteger) raw;
+            if (value.compareTo(BigInteger.valueOf(min)) < 0 || value.compareTo(BigInteger.valueOf(max)) > 0) {
+                throw mismatch(raw, type, path);
+            }
+        } else {
+            long value = ((Number) raw).longValue();
+            if (value < min || value > max) {
+                throw mismatch(raw, type, path);
+            }
+        }
+    }
+
+    private static InvalidConfigurationException mismatch(Object raw, Type type, String path) {
+        String found = (raw instanceof ConfigurationSection) ? "a section" : raw.getClass().getSimpleName() + " " + raw;
+        return new InvalidConfigurationException("Expected " + type.getTypeName() + " at " + path + " but found " + found);
+    }
+
+    private static boolean isBindable(Class<?> type) {
+        if (type.isRecord()) {
+            return true;
+        }
+        return type.isInterface()
+            && !type.isAnnotation()
+            && !type.getName().startsWith("java.")
+            && !ConfigurationSection.class.isAssignableFrom(type)
+            && !ConfigurationSerializable.class.isAssignableFrom(type);
+    }
+
+    private static Object getZero(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0D;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        }
+        return 0;
+    }
+
+    /**
+     * The result of binding a section
+     *
+     * @param <T> the bound type
+     */
+    public static final class Result<T> {
+        private T value;
+        private final List<String> missingKeys = new ArrayList<String>();
+        private final List<String> unknownKeys = new ArrayList<String>();
+
+        private Result() {}
+
+        /**
+         * Gets the bound object
+         *
+         * @return the bound object
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * Gets the paths of the properties which had no value and no default
+         * method, and were set to zero, false or null
+         *
+         * @return the missing paths
+         */
+        public List<String> getMissingKeys() {
+            return Collections.unmodifiableList(missingKeys);
+        }
+
+        /**
+         * Gets the paths of the values which match no property
+         *
+         * @return the unknown paths
+         */
+        public List<String> getUnknownKeys() {
+            return Collections.unmodifiableList(unknownKeys);
+        }
+    }
+
+    private static final class Property {
+        private final Method method;
+        private final Type type;
+        private final String key;
+        private final int index;
+        private Method defaultMethod;
+
+        Property(final Method method, final Type type, final int index) {
+            Key key = method.getAnnotation(Key.class);
+            this.method = method;
+            this.type = type;
+            this.key = (key == null) ? method.getName() : key.value();
+            this.index = index;
+        }
+    }
+
+    private static final class BoundHandler implements InvocationHandler {
+        private final ConfigurationBinding<?> binding;
+        private final Object[] values;
+
+        BoundHandler(final ConfigurationBinding<?> binding, final Object[] values) {
+            this.binding = binding;
+            this.values = values;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Integer index = binding.indexes.get(method);
+            if (index != null) {
+                return values[index];
+            }
+
+            if (method.getDeclaringClass() == Object.class) {
+                String name = method.getName();
+                if (name.equals("equals")) {
+                    Object other = args[0];
+                    if (other == null || !Proxy.isProxyClass(other.getClass())) {
+                        return false;
+                    }
+                    InvocationHandler handler = Proxy.getInvocationHandler(other);
+                    return handler instanceof BoundHandler
+                        && ((BoundHandler) handler).binding == binding
+                        && Arrays.equals(((BoundHandler) handler).values, values);
+                } else if (name.equals("hashCode")) {
+                    return Arrays.hashCode(values);
+                } else if (name.equals("toString")) {
+                    StringBuilder builder = new StringBuilder(binding.type.getSimpleName()).append('[');
+                    for (Property property : binding.properties) {
+                        if (property.index > 0) {
+                            builder.append(", ");
+                        }
+                        builder.append(property.key).append('=').append(values[property.index]);
+                    }
+                    return builder.append(']').toString();
+                }
+            }
+            if (method.isDefault()) {
+                return InvocationHandler.invokeDefault(proxy, method, args);
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+    }
+}
@@ -85,6 +85,17 @@ public class ConfigurationOptions {
      */
     public ConfigurationOptions copyDefaults(boolean value) {
         this.copyDefaults = value;
+        markModified();
         return this;
     }
+
+    /**
+     * Marks the owning {@link Configuration} as modified, after an option
+     * which changes how it is saved was set.
+     */
+    protected void markModified() {
+        if (configuration instanceof MemorySection) {
+            ((MemorySection) configuration).markModified();
+        }
+    }
 }
@@ -0,0 +1,711 @@
+package org.bukkit.configuration;
+
+import static org.bukkit.util.NumberConversions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable view of a {@link MemorySection} at the time it was taken with
+ * {@link MemorySection#snapshot()}.
+ * <p>
+ * Snapshots may be read from any thread without locking, while the section
+ * they were taken from keeps changing on its own thread. Sections which did
+ * not change between two snapshots are shared by them, and within a section
+ * only the keys which were set since are copied again, so the cost of a
+ * snapshot grows with the number of changes and their depth rather than
+ * the size of the configuration. Taking a snapshot of an unchanged
+ * configuration costs next to nothing.
+ * <p>
+ * Lists and maps are copied into unmodifiable collections, but other values,
+ * such as {@link org.bukkit.inventory.ItemStack}s, are shared with the
+ * section and must not be modified.
+ */
+public final class ConfigurationSnapshot {
+    private final Node node;
+    private final ConfigurationSnapshot defaults;
+    private final char separator;
+    private final boolean copyDefaults;
+    private final long generation;
+
+    ConfigurationSnapshot(final Node node, final ConfigurationSnapshot defaults, final char separator, final boolean copyDefaults, final long generation) {
+        this.node = node;
+        this.defaults = defaults;
+        this.separator = separator;
+        this.copyDefaults = copyDefaults;
+        this.generation = generation;
+    }
+
+    /**
+     * Gets the generation the configuration had when this snapshot was taken.
+     *
+     * @return the generation.
+     * @see MemorySection#getGeneration()
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets a set containing all keys in this section, like {@link
+     * ConfigurationSection#getKeys(boolean)}.
+     *
+     * @param deep Whether or not to get a deep list, as opposed to a shallow
+     *     list.
+     * @return Set of keys contained within this section.
+     */
+    public Set<String> getKeys(boolean deep) {
+        Set<String> result = new LinkedHashSet<String>();
+        if (copyDefaults && defaults != null) {
+            result.addAll(defaults.getKeys(deep));
+        }
+        mapChildrenKeys(result, node, "", deep);
+        return result;
+    }
+
+    /**
+     * Gets a map containing all keys and their values in this section, like
+     * {@link ConfigurationSection#getValues(boolean)}. Sections are returned
+     * as snapshots.
+     *
+     * @param deep Whether or not to get a deep list, as opposed to a shallow
+     *     list.
+     * @return Map of keys and values of this section.
+     */
+    public Map<String, Object> getValues(boolean deep) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        if (copyDefaults && defaults != null) {
+            result.putAll(defaults.getValues(deep));
+        }
+        mapChildrenValues(result, this, "", deep);
+        return result;
+    }
+
+    private void mapChildrenKeys(Set<String> output, Node node, String prefix, boolean deep) {
+        for (Entry entry : node.entries()) {
+            output.add(prefix + entry.key);
+
+            if (deep && entry.value instanceof Node) {
+                mapChildrenKeys(output, (Node) entry.value, prefix + entry.key + separator, deep);
+            }
+        }
+    }
+
+    private void mapChildrenValues(Map<String, Object> output, ConfigurationSnapshot section, String prefix, boolean deep) {
+        for (Entry entry : section.node.entries()) {
+            Object value = entry.value;
+
+            if (value instanceof Node) {
+                ConfigurationSnapshot child = section.getChild(entry.key, (Node) value);
+                output.put(prefix + entry.key, child);
+
+                if (deep) {
+                    mapChildrenValues(output, child, prefix + entry.key + separator, deep);
+                }
+            } else {
+                output.put(prefix + entry.key, value);
+            }
+        }
+    }
+
+    /**
+     * Checks if this section contains the given path, including default
+     * values.
+     *
+     * @param path Path to check for existence.
+     * @return True if this section contains the requested path.
+     */
+    public boolean contains(String path) {
+        return get(path) != null;
+    }
+
+    /**
+     * Checks if this section has a value set for the given path, like {@link
+     * ConfigurationSection#isSet(String)}.
+     *
+     * @param path Path to check for existence.
+     * @return True if this section has a value for the requested path.
+     */
+    public boolean isSet(String path) {
+        if (copyDefaults) {
+            return contains(path);
+        }
+        return get(path, null) != null;
+    }
+
+    /**
+     * Gets the requested Object by path, falling back to the default value.
+     *
+     * @param path Path of the Object to get.
+     * @return Requested Object.
+     */
+    public Object get(String path) {
+        org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
+        return get(MemorySection.parsePath(path, separator));
+    }
+
+    /**
+     * Gets the requested Object by path, returning a default value if not
+     * found.
+     *
+     * @param path Path of the Object to get.
+     * @param def The default value to return if the path is not found.
+     * @return Requested Object.
+     */
+    public Object get(String path, Object def) {
+        org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
+        return get(MemorySection.parsePath(path, separator), def);
+    }
+
+    /**
+     * Gets the requested Object by path, like {@link #get(String)}.
+     *
+     * @param path Path of the Object to get.
+     * @return Requested Object.
+     */
+    public Object get(ConfigPath path) {
+        Object val = get(path, null);
+        if (val == null && defaults != null) {
+            return defaults.get(path);
+        }
+        return val;
+    }
+
+    /**
+     * Gets the requested Object by path, returning a default value if not
+     * found, like {@link #get(String, Object)}.
+     *
+     * @param path Path of the Object to get.
+     * @param def The default value to return if the path is not found.
+     * @return Requested Object.
+     */
+    public Object get(ConfigPath path, Object def) {
+        org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
+
+        Object current = node;
+        for (int i = 0; i < path.size(); i++) {
+            if (!(current instanceof Node)) {
+                return def;
+            }
+            current = ((Node) current).get(path.getKey(i));
+        }
+
+        if (current == null) {
+            return def;
+        } else if (current instanceof Node) {
+            ConfigurationSnapshot childDefaults = null;
+            if (defaults != null) {
+                Object value = defaults.get(path, null);
+                if (value instanceof ConfigurationSnapshot) {
+                    childDefaults = (ConfigurationSnapshot) value;
+                }
+            }
+            return (current == node) ? this : new ConfigurationSnapshot((Node) current, childDefaults, separator, copyDefaults, generation);
+        }
+        return current;
+    }
+
+    private ConfigurationSnapshot getChild(String key, Node child) {
+        ConfigurationSnapshot childDefaults = null;
+        if (defaults != null) {
+            Object value = defaults.node.get(key);
+            if (value instanceof Node) {
+                childDefaults = defaults.getChild(key, (Node) value);
+            }
+        }
+        return new ConfigurationSnapshot(child, childDefaults, separator, copyDefaults, generation);
+    }
+
+    /**
+     * Gets the requested String by path, falling back to the default value.
+     *
+     * @param path Path of the String to get.
+     * @return Requested String.
+     */
+    public String getString(String path) {
+        Object val = get(path);
+        return (val != null) ? val.toString() : null;
+    }
+
+    /**
+     * Gets the requested String by path, returning a default value if not
+     * found.
+     *
+     * @param path Path of the String to get.
+     * @param def The default value to return if the path is not found.
+     * @return Requested String.
+     */
+    public String getString(String path, String def) {
+        Object val = get(path, def);
+        return (val != null) ? val.toString() : def;
+    }
+
+    /**
+     * Gets the requested int by path, falling back to the default value.
+     *
+     * @param path Path of the int to get.
+     * @return Requested int.
+     */
+    public int getInt(String path) {
+        Object def = getDefault(path);
+        return getInt(path, (def instanceof Number) ? toInt(def) : 0);
+    }
+
+    /**
+     * Gets the requested int by path, returning a default value if not found.
+     *
+     * @param path Path of the int to get.
+     * @param def The default value to return if the path is not found or is
+     *     not a number.
+     * @return Requested int.
+     */
+    public int getInt(String path, int def) {
+        Object val = get(path, null);
+        return (val instanceof Number) ? toInt(val) : def;
+    }
+
+    /**
+     * Gets the requested boolean by path, falling back to the default value.
+     *
+     * @param path Path of the boolean to get.
+     * @return Requested boolean.
+     */
+    public boolean getBoolean(String path) {
+        Object def = getDefault(path);
+        return getBoolean(path, (def instanceof Boolean) ? (Boolean) def : false);
+    }
+
+    /**
+     * Gets the requested boolean by path, returning a default value if not
+     * found.
+     *
+     * @param path Path of the boolean to get.
+     * @param def The default value to return if the path is not found or is
+     *     not a boolean.
+     * @return Requested boolean.
+     */
+    public boolean getBoolean(String path, boolean def) {
+        Object val = get(path, null);
+        return (val instanceof Boolean) ? (Boolean) val : def;
+    }
+
+    /**
+     * Gets the requested double by path, falling back to the default value.
+     *
+     * @param path Path of the double to get.
+     * @return Requested double.
+     */
+    public double getDouble(String path) {
+        Object def = getDefault(path);
+        return getDouble(path, (def instanceof Number) ? toDouble(def) : 0);
+    }
+
+    /**
+     * Gets the requested double by path, returning a default value if not
+     * found.
+     *
+     * @param path Path of the double to get.
+     * @param def The default value to return if the path is not found or is
+     *     not a number.
+     * @return Requested double.
+     */
+    public double getDouble(String path, double def) {
+        Object val = get(path, null);
+        return (val instanceof Number) ? toDouble(val) : def;
+    }
+
+    /**
+     * Gets the requested long by path, falling back to the default value.
+     *
+     * @param path Path of the long to get.
+     * @return Requested long.
+     */
+    public long getLong(String path) {
+        Object def = getDefault(path);
+        return getLong(path, (def instanceof Number) ? toLong(def) : 0);
+    }
+
+    /**
+     * Gets the requested long by path, returning a default value if not
+     * found.
+     *
+     * @param path Path of the long to get.
+     * @param def The default value to return if the path is not found or is
+     *     not a number.
+     * @return Requested long.
+     */
+    public long getLong(String path, long def) {
+        Object val = get(path, null);
+        return (val instanceof Number) ? toLong(val) : def;
+    }
+
+    /**
+     * Gets the requested List by path, falling back to the default value.
+     *
+     * @param path Path of the List to get.
+     * @return Requested unmodifiable List.
+     */
+    public List<?> getList(String path) {
+        Object val = get(path);
+        return (val instanceof List) ? (List<?>) val : null;
+    }
+
+    /**
+     * Gets the requested List by path, returning a default value if not
+     * found.
+     *
+     * @param path Path of the List to get.
+     * @param def The default value to return if the path is not found or is
+     *     not a List.
+     * @return Requested List.
+     */
+    public List<?> getList(String path, List<?> def) {
+        Object val = get(path, null);
+        return (val instanceof List) ? (List<?>) val : def;
+    }
+
+    /**
+     * Gets the requested List of String by path, like {@link
+     * ConfigurationSection#getStringList(String)}.
+     *
+     * @param path Path of the List to get.
+     * @return Requested List of String.
+     */
+    public List<String> getStringList(String path) {
+        List<?> list = getList(path);
+
+        if (list == null) {
+            return new ArrayList<String>(0);
+        }
+
+        List<String> result = new ArrayList<String>();
+
+        for (Object object : list) {
+            if (object instanceof String || object instanceof Number || object instanceof Boolean || object instanceof Character) {
+                result.add(String.valueOf(object));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the requested section by path.
+     *
+     * @param path Path of the section to get.
+     * @return Requested section, or null if the path is not a section.
+     */
+    public ConfigurationSnapshot getSection(String path) {
+        Object val = get(path);
+        return (val instanceof ConfigurationSnapshot) ? (ConfigurationSnapshot) val : null;
+    }
+
+    /**
+     * Checks if the specified path is a section.
+     *
+     * @param path Path of the section to check.
+     * @return Whether or not the specified path is a section.
+     */
+    public boolean isSection(String path) {
+        return get(path) instanceof ConfigurationSnapshot;
+    }
+
+    private Object getDefault(String path) {
+        return (defaults == null) ? null : defaults.get(path);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[generation=" + generation + ", values=" + getValues(false) + "]";
+    }
+
+    /**
+     * The immutable values of a section, kept by the section so later
+     * snapshots can share it.
+     * <p>
+     * Values are held in a hash array mapped trie, so setting or removing a
+     * key copies only the few small arrays along its path, however wide the
+     * section is. Each entry remembers when its key was added, which gives
+     * the order of the section.
+     */
+    static final class Node {
+        private static final Node EMPTY = new Node(new Branch(0, new Object[0]), 0, 0);
+        private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+            public int compare(Entry first, Entry second) {
+                return Long.compare(first.order, second.order);
+            }
+        };
+
+        private final Branch root;
+        private final int size;
+        private final long nextOrder;
+        private volatile Entry[] ordered;
+
+        private Node(final Branch root, final int size, final long nextOrder) {
+            this.root = root;
+            this.size = size;
+            this.nextOrder = nextOrder;
+        }
+
+        /**
+         * Copies the values of a section, reusing the nodes of its
+         * subsections.
+         *
+         * @param map Values of the section.
+         * @return the copied values.
+         */
+        static Node of(Map<String, Object> map) {
+            Node node = EMPTY;
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                node = node.with(entry.getKey(), entry.getValue());
+            }
+            return node;
+        }
+
+        /**
+         * Gets the value of a key.
+         *
+         * @param key Key to get.
+         * @return the value, or null if the key is not set.
+         */
+        Object get(String key) {
+            Entry entry = find(key, hash(key));
+            return (entry == null) ? null : entry.value;
+        }
+
+        /**
+         * Copies these values with one key changed. A key which was not set
+         * is added last.
+         *
+         * @param key Key to change.
+         * @param value Value of the section, or null to remove the key.
+         * @return the changed values.
+         */
+        Node with(String key, Object value) {
+            int hash = hash(key);
+            Entry old = find(key, hash);
+            if (value == null) {
+                return (old == null) ? this : new Node(remove(root, key, hash, 0), size - 1, nextOrder);
+            }
+
+            Entry entry = new Entry(key, freeze(value), (old == null) ? nextOrder : old.order);
+            return new Node(put(root, entry, hash, 0), (old == null) ? size + 1 : size, (old == null) ? nextOrder + 1 : nextOrder);
+        }
+
+        /**
+         * Gets the entries in the order their keys were added.
+         *
+         * @return the entries, which must not be modified.
+         */
+        Entry[] entries() {
+            Entry[] result = ordered;
+            if (result == null) {
+                List<Entry> entries = new ArrayList<Entry>(size);
+                collect(root, entries);
+                result = entries.toArray(new Entry[entries.size()]);
+                Arrays.sort(result, ORDER);
+                ordered = result;
+            }
+            return result;
+        }
+
+        private Entry find(String key, int hash) {
+            Branch branch = root;
+            int shift = 0;
+            while (true) {
+                int bit = bit(hash, shift);
+                if ((branch.bitmap & bit) == 0) {
+                    return null;
+                }
+
+                Object child = branch.children[index(branch.bitmap, bit)];
+                if (child instanceof Branch) {
+                    branch = (Branch) child;
+                    shift += 5;
+                } else if (child instanceof Entry) {
+                    return ((Entry) child).key.equals(key) ? (Entry) child : null;
+                } else {
+                    return findCollision((Entry[]) child, key);
+                }
+            }
+        }
+
+        private static Branch put(Branch branch, Entry entry, int hash, int shift) {
+            int bit = bit(hash, shift);
+            int index = index(branch.bitmap, bit);
+            if ((branch.bitmap & bit) == 0) {
+                Object[] children = new Object[branch.children.length + 1];
+                System.arraycopy(branch.children, 0, children, 0, index);
+                children[index] = entry;
+                System.arraycopy(branch.children, index, children, index + 1, branch.children.length - index);
+                return new Branch(branch.bitmap | bit, children);
+            }
+
+            Object child = branch.children[index];
+            Object replacement;
+            if (child instanceof Branch) {
+                replacement = put((Branch) child, entry, hash, shift + 5);
+            } else if (child instanceof Entry) {
+                Entry existing = (Entry) child;
+                replacement = existing.key.equals(entry.key) ? entry : merge(existing, hash(existing.key), entry, hash, shift + 5);
+            } else {
+                replacement = putCollision((Entry[]) child, entry);
+            }
+
+            Object[] children = branch.children.clone();
+            children[index] = replacement;
+            return new Branch(branch.bitmap, children);
+        }
+
+        private static Branch remove(Branch branch, String key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            int index = index(branch.bitmap, bit);
+            Object child = branch.children[index];
+
+            Object replacement = null;
+            if (child instanceof Branch) {
+                Branch removed = remove((Branch) child, key, hash, shift + 5);
+                if (removed.children.length == 1 && removed.children[0] instanceof Entry) {
+                    replacement = removed.children[0];
+                } else if (removed.children.length > 0) {
+                    replacement = removed;
+                }
+            } else if (child instanceof Entry[]) {
+                Entry[] entries = (Entry[]) child;
+                Entry[] remaining = new Entry[entries.length - 1];
+                int i = 0;
+                for (Entry entry : entries) {
+                    if (!entry.key.equals(key)) {
+                        remaining[i++] = entry;
+                    }
+                }
+                replacement = (remaining.length == 1) ? remaining[0] : remaining;
+            }
+
+            if (replacement != null) {
+                Object[] children = branch.children.clone();
+                children[index] = replacement;
+                return new Branch(branch.bitmap, children);
+            }
+            Object[] children = new Object[branch.children.length - 1];
+            System.arraycopy(branch.children, 0, children, 0, index);
+            System.arraycopy(branch.children, index + 1, children, index, children.length - index);
+            return new Branch(branch.bitmap & ~bit, children);
+        }
+
+        private static Object merge(Entry first, int firstHash, Entry second, int secondHash, int shift) {
+            if (shift >= 32) {
+                // Every bit of the hashes is equal
+                return new Entry[] { first, second };
+            }
+
+            int firstBit = bit(firstHash, shift);
+            int secondBit = bit(secondHash, shift);
+            if (firstBit == secondBit) {
+                return new Branch(firstBit, new Object[] { merge(first, firstHash, second, secondHash, shift + 5) });
+            }
+            boolean firstIsLower = Integer.compareUnsigned(firstBit, secondBit) < 0;
+            return new Branch(firstBit | secondBit, firstIsLower ? new Object[] { first, second } : new Object[] { second, first });
+        }
+
+        private static Entry findCollision(Entry[] entries, String key) {
+            for (Entry entry : entries) {
+                if (entry.key.equals(key)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        private static Entry[] putCollision(Entry[] entries, Entry entry) {
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].key.equals(entry.key)) {
+                    Entry[] result = entries.clone();
+                    result[i] = entry;
+                    return result;
+                }
+            }
+            Entry[] result = Arrays.copyOf(entries, entries.length + 1);
+            result[entries.length] = entry;
+            return result;
+        }
+
+        private static void collect(Object node, List<Entry> output) {
+            if (node instanceof Entry) {
+                output.add((Entry) node);
+            } else if (node instanceof Branch) {
+                for (Object child : ((Branch) node).children) {
+                    collect(child, output);
+                }
+            } else {
+                output.addAll(Arrays.asList((Entry[]) node));
+            }
+        }
+
+        private static int hash(String key) {
+            int hash = key.hashCode();
+            return hash ^ (hash >>> 16);
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & 31);
+        }
+
+        private static int index(int bitmap, int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static Object freeze(Object value) {
+            if (value instanceof MemorySection) {
+                return ((MemorySection) value).getSnapshotNode();
+            } else if (value instanceof ConfigurationSection) {
+                return of(((ConfigurationSection) value).getValues(false));
+            } else if (value instanceof List) {
+                List<Object> result = new ArrayList<Object>(((List<?>) value).size());
+                for (Object element : (List<?>) value) {
+                    result.add(freeze(element));
+                }
+                return Collections.unmodifiableList(result);
+            } else if (value instanceof Map) {
+                Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    result.put(entry.getKey(), freeze(entry.getValue()));
+                }
+                return Collections.unmodifiableMap(result);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A key of a {@link Node} with its frozen value.
+     */
+    static final class Entry {
+        private final String key;
+        private final Object value;
+        private final long order;
+
+        Entry(final String key, final Object value, final long order) {
+            this.key = key;
+            this.value = value;
+            this.order = order;
+        }
+    }
+
+    private static final class Branch {
+        private final int bitmap;
+        private final Object[] children;
+
+        Branch(final int bitmap, final Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+    }
+}
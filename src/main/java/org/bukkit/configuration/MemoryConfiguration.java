@@ -58,6 +58,7 @@ public class MemoryConfiguration extends MemorySection implements Configuration
         org.apache.commons.lang3.Validate.notNull(defaults, "Defaults may not be null");
 
         this.defaults = defaults;
+        markModified();
     }
 
     public Configuration getDefaults() {
@@ -3,6 +3,7 @@ package org.bukkit.configuration;
 import static org.bukkit.util.NumberConversions.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -19,11 +20,19 @@ import org.bukkit.util.Vector;
  * A type of {@link ConfigurationSection} that is stored in memory.
  */
 public class MemorySection implements ConfigurationSection {
+    private static final int PATH_CACHE_SIZE = 256;
+    // Entries are immutable, so racing threads at worst parse a path twice
+    private static final ConfigPath[] pathCache = new ConfigPath[PATH_CACHE_SIZE];
+
     protected final Map<String, Object> map = new LinkedHashMap<String, Object>();
     private final Configuration root;
     private final ConfigurationSection parent;
     private final String path;
     private final String fullPath;
+    private long generation;
+    // Updated from changedKeys when the next snapshot is taken
+    private ConfigurationSnapshot.Node snapshot;
+    private Set<String> changedKeys;
 
     /**
      * Creates an empty MemorySection for use as a root {@link Configuration}
@@ -133,6 +142,104 @@ public class MemorySection implements ConfigurationSection {
         return parent;
     }
 
+    /**
+     * Gets the generation of the configuration holding this section, which
+     * changes whenever a value of it is set or removed.
+     * <p>
+     * Changes made to a value in place, such as adding to a list, are not
+     * noticed until the value is set again.
+     *
+     * @return the generation of the root configuration
+     */
+    public long getGeneration() {
+        Configuration root = getRoot();
+        return (root instanceof MemorySection) ? ((MemorySection) root).generation : 0;
+    }
+
+    /**
+     * Advances the generation of the configuration holding this section.
+     * Subclasses must call this after changing {@link #map} directly.
+     */
+    protected void markModified() {
+        advanceGeneration();
+        snapshot = null;
+        changedKeys = null;
+        if (parent instanceof MemorySection) {
+            ((MemorySection) parent).markChanged(path);
+        }
+    }
+
+    private void markModified(String key) {
+        advanceGeneration();
+        markChanged(key);
+    }
+
+    private void advanceGeneration() {
+        Configuration root = getRoot();
+        if (root instanceof MemorySection) {
+            ((MemorySection) root).generation++;
+        }
+    }
+
+    private void markChanged(String key) {
+        if (snapshot != null) {
+            if (changedKeys == null) {
+                changedKeys = new LinkedHashSet<String>();
+            }
+            if (map.containsKey(key)) {
+                // Kept in the order the keys were added, like the map
+                changedKeys.add(key);
+            } else {
+                // Removed right away, so a key added again goes last
+                snapshot = snapshot.with(key, null);
+                changedKeys.remove(key);
+            }
+        }
+        if (parent instanceof MemorySection) {
+            ((MemorySection) parent).markChanged(path);
+        }
+    }
+
+    /**
+     * Takes an immutable snapshot of this section and its defaults, which
+     * may be read from any thread.
+     * <p>
+     * Like the rest of this section, this must only be called from the
+     * thread which changes it. Taking snapshots is cheap, as only the keys
+     * which were set since the last snapshot, and the sections above them,
+     * are copied again.
+     *
+     * @return a snapshot of this section.
+     * @throws IllegalStateException Thrown if this section has no root.
+     */
+    public ConfigurationSnapshot snapshot() {
+        Configuration root = getRoot();
+        if (root == null) {
+            throw new IllegalStateException("Cannot snapshot section without a root");
+        }
+
+        ConfigurationSnapshot defaults = null;
+        if (root.getDefaults() instanceof MemorySection) {
+            defaults = ((MemorySection) root.getDefaults()).snapshot();
+            if (root != this) {
+                defaults = defaults.getSection(getCurrentPath());
+            }
+        }
+        return new ConfigurationSnapshot(getSnapshotNode(), defaults, root.options().pathSeparator(), root.options().copyDefaults(), getGeneration());
+    }
+
+    ConfigurationSnapshot.Node getSnapshotNode() {
+        if (snapshot == null) {
+            snapshot = ConfigurationSnapshot.Node.of(map);
+        } else if (changedKeys != null) {
+            for (String key : changedKeys) {
+                snapshot = snapshot.with(key, map.get(key));
+            }
+        }
+        changedKeys = null;
+        return snapshot;
+    }
+
     public void addDefault(String path, Object value) {
         org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
 
@@ -167,31 +274,45 @@ public class MemorySection implements ConfigurationSection {
             throw new IllegalStateException("Cannot use section without a root");
         }
 
-        final char separator = root.options().pathSeparator();
-        // i1 is the leading (higher) index
-        // i2 is the trailing (lower) index
-        int i1 = -1, i2;
-        ConfigurationSection section = this;
-        while ((i1 = path.indexOf(separator, i2 = i1 + 1)) != -1) {
-            String node = path.substring(i2, i1);
-            ConfigurationSection subSection = section.getConfigurationSection(node);
-            if (subSection == null) {
-                section = section.createSection(node);
-            } else {
-                section = subSection;
-            }
+        set(parsePath(path, root.options().pathSeparator()), value);
+    }
+
+    /**
+     * Sets the specified path to the given value, like {@link #set(String,
+     * Object)}.
+     *
+     * @param path Path of the object to set.
+     * @param value New value to set the path to.
+     */
+    public void set(ConfigPath path, Object value) {
+        org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
+        org.apache.commons.lang3.Validate.isTrue(path.size() > 0, "Cannot set to an empty path");
+
+        Configuration root = getRoot();
+        if (root == null) {
+            throw new IllegalStateException("Cannot use section without a root");
         }
 
-        String key = path.substring(i2);
-        if (section == this) {
-            if (value == null) {
-                map.remove(key);
-            } else {
-                map.put(key, value);
+        int last = path.size() - 1;
+        MemorySection section = this;
+        for (int i = 0; i < last; i++) {
+            String node = path.getKey(i);
+            Object child = section.map.get(node);
+            ConfigurationSection subSection = (child instanceof ConfigurationSection) ? (ConfigurationSection) child : section.createSection(node);
+            if (!(subSection instanceof MemorySection)) {
+                subSection.set(path.join(i + 1, root.options().pathSeparator()), value);
+                return;
             }
+            section = (MemorySection) subSection;
+        }
+
+        String key = path.getKey(last);
+        if (value == null) {
+            section.map.remove(key);
         } else {
-            section.set(key, value);
+            section.map.put(key, value);
         }
+        section.markModified(key);
     }
 
     public Object get(String path) {
@@ -210,24 +331,55 @@ public class MemorySection implements ConfigurationSection {
             throw new IllegalStateException("Cannot access section without a root");
         }
 
-        final char separator = root.options().pathSeparator();
-        // i1 is the leading (higher) index
-        // i2 is the trailing (lower) index
-        int i1 = -1, i2;
-        ConfigurationSection section = this;
-        while ((i1 = path.indexOf(separator, i2 = i1 + 1)) != -1) {
-            section = section.getConfigurationSection(path.substring(i2, i1));
-            if (section == null) {
+        return get(parsePath(path, root.options().pathSeparator()), def);
+    }
+
+    /**
+     * Gets the requested Object by path, like {@link #get(String)}.
+     *
+     * @param path Path of the Object to get.
+     * @return Requested Object.
+     */
+    public Object get(ConfigPath path) {
+        Object val = get(path, null);
+        return (val != null) ? val : getDefault(path);
+    }
+
+    /**
+     * Gets the requested Object by path, returning a default value if not
+     * found, like {@link #get(String, Object)}.
+     *
+     * @param path Path of the Object to get.
+     * @param def The default value to return if the path is not found.
+     * @return Requested Object.
+     */
+    public Object get(ConfigPath path, Object def) {
+        org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
+
+        if (path.size() == 0) {
+            return this;
+        }
+
+        Configuration root = getRoot();
+        if (root == null) {
+            throw new IllegalStateException("Cannot access section without a root");
+        }
+
+        Object current = this;
+        for (int i = 0; i < path.size(); i++) {
+            if (current instanceof MemorySection) {
+                current = ((MemorySection) current).map.get(path.getKey(i));
+            } else if (current instanceof ConfigurationSection) {
+                return ((ConfigurationSection) current).get(path.join(i, root.options().pathSeparator()), def);
+            } else {
                 return def;
             }
-        }
 
-        String key = path.substring(i2);
-        if (section == this) {
-            Object result = map.get(key);
-            return (result == null) ? def : result;
+            if (current == null) {
+                return def;
+            }
         }
-        return section.get(key, def);
+        return current;
     }
 
     public ConfigurationSection createSection(String path) {
@@ -256,6 +408,7 @@ public class MemorySection implements ConfigurationSection {
         if (section == this) {
             ConfigurationSection result = new MemorySection(this, key);
             map.put(key, result);
+            markModified(key);
             return result;
         }
         return section.createSection(key);
@@ -275,6 +428,92 @@ public class MemorySection implements ConfigurationSection {
         return section;
     }
 
+    /**
+     * Applies the changes between two versions of a section to this
+     * section, setting or removing only the values which differ between
+     * them. Values of this section at any other path are left as they are.
+     * <p>
+     * Sections are compared key by key, and any other values with {@link
+     * Object#equals(Object)}. Defaults of all sections are ignored.
+     *
+     * @param previous Section holding the old values.
+     * @param source Section holding the new values.
+     * @return the paths which were changed, relative to this section.
+     * @throws IllegalArgumentException Thrown if previous or source is null.
+     */
+    public Set<String> applyDifferences(ConfigurationSection previous, ConfigurationSection source) {
+        org.apache.commons.lang3.Validate.notNull(previous, "Previous cannot be null");
+        org.apache.commons.lang3.Validate.notNull(source, "Source cannot be null");
+
+        Set<String> changed = new LinkedHashSet<String>();
+        applyDifferences(getValueMap(previous), getValueMap(source), "", changed);
+        return changed;
+    }
+
+    private void applyDifferences(Map<String, Object> previous, Map<String, Object> values, String prefix, Set<String> changed) {
+        char separator = getRoot().options().pathSeparator();
+
+        for (String key : previous.keySet()) {
+            if (!values.containsKey(key) && map.remove(key) != null) {
+                markModified(key);
+                changed.add(prefix + key);
+            }
+        }
+
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            Object old = previous.get(key);
+            if (isSame(old, value)) {
+                continue;
+            }
+
+            Object current = map.get(key);
+            if (value instanceof ConfigurationSection) {
+                MemorySection section;
+                if (current instanceof MemorySection) {
+                    section = (MemorySection) current;
+                } else {
+                    section = new MemorySection(this, key);
+                    map.put(key, section);
+                    markModified(key);
+                    changed.add(prefix + key);
+                }
+                Map<String, Object> oldValues = (old instanceof ConfigurationSection) ? getValueMap((ConfigurationSection) old) : Collections.<String, Object>emptyMap();
+                section.applyDifferences(oldValues, getValueMap((ConfigurationSection) value), prefix + key + separator, changed);
+            } else if (value == null ? current != null : !value.equals(current)) {
+                if (value == null) {
+                    map.remove(key);
+                } else {
+                    map.put(key, value);
+                }
+                markModified(key);
+                changed.add(prefix + key);
+            }
+        }
+    }
+
+    private static Map<String, Object> getValueMap(ConfigurationSection section) {
+        return (section instanceof MemorySection) ? ((MemorySection) section).map : section.getValues(false);
+    }
+
+    private static boolean isSame(Object first, Object second) {
+        if (first instanceof ConfigurationSection && second instanceof ConfigurationSection) {
+            Map<String, Object> firstValues = getValueMap((ConfigurationSection) first);
+            Map<String, Object> secondValues = getValueMap((ConfigurationSection) second);
+            if (!firstValues.keySet().equals(secondValues.keySet())) {
+                return false;
+            }
+            for (Map.Entry<String, Object> entry : firstValues.entrySet()) {
+                if (!isSame(entry.getValue(), secondValues.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return (first == null) ? second == null : first.equals(second);
+    }
+
     // Primitives
     public String getString(String path) {
         Object def = getDefault(path);
@@ -286,6 +525,31 @@ public class MemorySection implements ConfigurationSection {
         return (val != null) ? val.toString() : def;
     }
 
+    /**
+     * Gets the requested String by path, like {@link #getString(String)}.
+     *
+     * @param path Path of the String to get.
+     * @return Requested String.
+     */
+    public String getString(ConfigPath path) {
+        Object val = get(path);
+        return (val != null) ? val.toString() : null;
+    }
+
+    /**
+     * Gets the requested String by path, returning a default value if not
+     * found, like {@link #getString(String, String)}.
+     *
+     * @param path Path of the String to get.
+     * @param def The default value to return if the path is not found or is
+     *     not a String.
+     * @return Requested String.
+     */
+    public String getString(ConfigPath path, String def) {
+        Object val = get(path, def);
+        return (val != null) ? val.toString() : def;
+    }
+
     public boolean isString(String path) {
         Object val = get(path);
         return val instanceof String;
@@ -301,6 +565,36 @@ public class MemorySection implements ConfigurationSection {
         return (val instanceof Number) ? toInt(val) : def;
     }
 
+    /**
+     * Gets the requested int by path, like {@link #getInt(String)}.
+     *
+     * @param path Path of the int to get.
+     * @return Requested int.
+     */
+    public int getInt(ConfigPath path) {
+        Object val = get(path, null);
+        if (val instanceof Number) {
+            return toInt(val);
+        }
+
+        Object def = getDefault(path);
+        return (def instanceof Number) ? toInt(def) : 0;
+    }
+
+    /**
+     * Gets the requested int by path, returning a default value if not found,
+     * like {@link #getInt(String, int)}.
+     *
+     * @param path Path of the int to get.
+     * @param def The default value to return if the path is not found or is
+     *     not an int.
+     * @return Requested int.
+     */
+    public int getInt(ConfigPath path, int def) {
+        Object val = get(path, null);
+        return (val instanceof Number) ? toInt(val) : def;
+    }
+
     public boolean isInt(String path) {
         Object val = get(path);
         return val instanceof Integer;
@@ -705,6 +999,52 @@ public class MemorySection implements ConfigurationSection {
         return (defaults == null) ? null : defaults.get(createPath(this, path));
     }
 
+    /**
+     * Gets the default value of the given path, from the defaults of the root
+     * {@link Configuration}.
+     *
+     * @param path Path of the default value.
+     * @return the default value, or null if there is none.
+     */
+    protected Object getDefault(ConfigPath path) {
+        org.apache.commons.lang3.Validate.notNull(path, "Path cannot be null");
+
+        Configuration root = getRoot();
+        Configuration defaults = root == null ? null : root.getDefaults();
+        if (defaults == null) {
+            return null;
+        }
+        if (root == this && defaults instanceof MemorySection) {
+            return ((MemorySection) defaults).get(path);
+        }
+        return defaults.get(createPath(this, path.join(0, root.options().pathSeparator())));
+    }
+
+    /**
+     * Splits a path, reusing the split of a recently used path if possible.
+     *
+     * @param path Path to split.
+     * @param separator Separator between the keys of the path.
+     * @return the split path.
+     */
+    static ConfigPath parsePath(String path, char separator) {
+        // A single key is cheaper to wrap than to cache, and loading sets
+        // many of them which would only push useful paths out of the cache
+        if (path.indexOf(separator) == -1) {
+            return ConfigPath.of(path, separator);
+        }
+
+        int index = (path.hashCode() * 31 + separator) & (PATH_CACHE_SIZE - 1);
+        ConfigPath cached = pathCache[index];
+        if (cached != null && cached.getSeparator() == separator && cached.getPath().equals(path)) {
+            return cached;
+        }
+
+        ConfigPath result = ConfigPath.of(path, separator);
+        pathCache[index] = result;
+        return result;
+    }
+
     protected void mapChildrenKeys(Set<String> output, ConfigurationSection section, boolean deep) {
         if (section instanceof MemorySection) {
             MemorySection sec = (MemorySection) section;
@@ -0,0 +1,596 @@
+package org.bukkit.configuration.file;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+
+/**
+ * An implementation of {@link Configuration} which saves all files in a
+ * compact binary format, for large configurations which are rarely edited by
+ * hand.
+ * <p>
+ * Files hold the same values as a {@link YamlConfiguration}, and {@link
+ * ConfigurationSerializable} values are stored in their serialized form with
+ * their {@link ConfigurationSerialization#SERIALIZED_TYPE_KEY alias}.
+ * Every value is written with a type tag and every collection is prefixed
+ * with its size. Maps with keys other than strings, such as those in lists,
+ * have their keys written as values too. Keys and strings are written once, and referred to by
+ * their index afterwards.
+ * <p>
+ * Streams are binary only through {@link #save(OutputStream)} and {@link
+ * #loadBinary(InputStream)}. Text is always YAML: {@link #saveToString()} and
+ * {@link #toYaml()} convert to YAML for hand editing, and {@link
+ * #loadFromString(String)} and {@link #load(java.io.Reader)} read YAML back.
+ * Note that this implementation is not synchronized.
+ */
+public class BinaryConfiguration extends FileConfiguration {
+    private static final int MAGIC = 0x424B4346;
+    private static final int VERSION = 1;
+
+    private static final int NULL = 0;
+    private static final int MAP = 1;
+    private static final int LIST = 2;
+    private static final int SET = 3;
+    private static final int STRING = 4;
+    private static final int TRUE = 5;
+    private static final int FALSE = 6;
+    private static final int INTEGER = 7;
+    private static final int LONG = 8;
+    private static final int DOUBLE = 9;
+    private static final int FLOAT = 10;
+    private static final int SHORT = 11;
+    private static final int BYTE = 12;
+    private static final int CHARACTER = 13;
+    private static final int BIG_INTEGER = 14;
+    private static final int DATE = 15;
+    private static final int BYTES = 16;
+    private static final int SERIALIZED = 17;
+    private static final int KEYED_MAP = 18;
+
+    /**
+     * Writes this configuration in the binary format.
+     *
+     * @param out Stream to write to, which is left open.
+     * @throws IOException Thrown when the stream cannot be written to, or a
+     *     value has no binary form.
+     * @throws IllegalArgumentException Thrown when out is null.
+     */
+    public void save(OutputStream out) throws IOException {
+        org.apache.commons.lang3.Validate.notNull(out, "Stream cannot be null");
+
+        write(out, buildHeader(), this);
+    }
+
+    /**
+     * Loads this configuration from the binary format.
+     * <p>
+     * All the values contained within this configuration will be removed,
+     * leaving only settings and defaults, and the new values will be loaded
+     * from the given stream.
+     *
+     * @param stream Stream to load from, which is left open.
+     * @throws IOException Thrown when the stream cannot be read.
+     * @throws InvalidConfigurationException Thrown when the stream does not
+     *     hold a binary configuration.
+     * @throws IllegalArgumentException Thrown when stream is null.
+     */
+    public void loadBinary(InputStream stream) throws IOException, InvalidConfigurationException {
+        org.apache.commons.lang3.Validate.notNull(stream, "Stream cannot be null");
+
+        DataInputStream in = new DataInputStream(stream instanceof BufferedInputStream ? stream : new BufferedInputStream(stream));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new InvalidConfigurationException("Not a binary configuration");
+            }
+            if (in.readInt() != VERSION) {
+                throw new InvalidConfigurationException("Unsupported binary configuration version");
+            }
+
+            ValueReader reader = new ValueReader(in);
+            String header = in.readBoolean() ? reader.readString() : null;
+            if (header != null) {
+                options().header(header);
+            }
+
+            if (in.readUnsignedByte() != MAP) {
+                throw new InvalidConfigurationException("Top level is not a Map.");
+            }
+            reader.readSection(this);
+        } catch (EOFException ex) {
+            throw new InvalidConfigurationException("Truncated binary configuration", ex);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidConfigurationException(ex);
+        }
+    }
+
+    @Override
+    protected void saveToStream(OutputStream out) throws IOException {
+        save(out);
+    }
+
+    /**
+     * Copies the values of this configuration on the calling thread, and
+     * encodes the copy when the save runs.
+     */
+    @Override
+    protected SaveTask prepareSave() {
+        final String header = buildHeader();
+        final Object values = copyForSave(this);
+
+        return new SaveTask() {
+            public void write(OutputStream out) throws IOException {
+                BinaryConfiguration.write(out, header, values);
+            }
+        };
+    }
+
+    @Override
+    protected void loadFromStream(InputStream stream) throws IOException, InvalidConfigurationException {
+        try {
+            loadBinary(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Saves this configuration as YAML.
+     *
+     * @return YAML containing this configuration.
+     */
+    @Override
+    public String saveToString() {
+        return toYaml().saveToString();
+    }
+
+    /**
+     * Loads this configuration from YAML.
+     *
+     * @param contents YAML to load.
+     * @throws InvalidConfigurationException Thrown if the YAML is invalid.
+     */
+    @Override
+    public void loadFromString(String contents) throws InvalidConfigurationException {
+        org.apache.commons.lang3.Validate.notNull(contents, "Contents cannot be null");
+
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.options().pathSeparator(options().pathSeparator());
+        yaml.loadFromString(contents);
+
+        if (yaml.options().header() != null) {
+            options().header(yaml.options().header());
+        }
+        copy(yaml, this);
+    }
+
+    /**
+     * Gets the header of this configuration, which is stored as plain text
+     * rather than as YAML comments.
+     */
+    @Override
+    protected String buildHeader() {
+        if (options().copyHeader()) {
+            Configuration def = getDefaults();
+
+            if (def instanceof FileConfiguration) {
+                String defaultsHeader = ((FileConfiguration) def).options().header();
+
+                if ((defaultsHeader != null) && (defaultsHeader.length() > 0)) {
+                    return defaultsHeader;
+                }
+            }
+        }
+
+        String header = options().header();
+        return header == null ? "" : header;
+    }
+
+    /**
+     * Copies the values and header of this configuration into a new {@link
+     * YamlConfiguration}.
+     *
+     * @return the YAML configuration
+     */
+    public YamlConfiguration toYaml() {
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.options().pathSeparator(options().pathSeparator());
+
+        String header = buildHeader();
+        if (header.length() > 0) {
+            yaml.options().header(header);
+        }
+        copy(this, yaml);
+        return yaml;
+    }
+
+    /**
+     * Copies the values and header of a configuration into a new {@link
+     * BinaryConfiguration}.
+     *
+     * @param yaml Configuration to copy
+     * @return the binary configuration
+     * @throws IllegalArgumentException Thrown if yaml is null
+     */
+    public static BinaryConfiguration fromYaml(FileConfiguration yaml) {
+        org.apache.commons.lang3.Validate.notNull(yaml, "Configuration cannot be null");
+
+        BinaryConfiguration config = new BinaryConfiguration();
+        config.options().pathSeparator(yaml.options().pathSeparator());
+        config.options().header(yaml.options().header());
+        copy(yaml, config);
+        return config;
+    }
+
+    private static void copy(ConfigurationSection from, ConfigurationSection to) {
+        for (Map.Entry<String, Object> entry : from.getValues(false).entrySet()) {
+            if (entry.getValue() instanceof ConfigurationSection) {
+                copy((ConfigurationSection) entry.getValue(), to.createSection(entry.getKey()));
+            } else {
+                to.set(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public FileConfigurationOptions options() {
+        if (options == null) {
+            options = new FileConfigurationOptions(this);
+        }
+
+        return (FileConfigurationOptions) options;
+    }
+
+    /**
+     * Creates a new {@link BinaryConfiguration}, loading from the given file.
+     * <p>
+     * Any errors loading the Configuration will be logged and then ignored.
+     * If the specified input is not a valid config, a blank config will be
+     * returned.
+     *
+     * @param file Input file
+     * @return Resulting configuration
+     * @throws IllegalArgumentException Thrown if file is null
+     */
+    public static BinaryConfiguration loadConfiguration(File file) {
+        org.apache.commons.lang3.Validate.notNull(file, "File cannot be null");
+
+        BinaryConfiguration config = new BinaryConfiguration();
+
+        try {
+            config.load(file);
+        } catch (FileNotFoundException ex) {
+        } catch (IOException ex) {
+            Bukkit.getLogger().log(Level.SEVERE, "Cannot load " + file, ex);
+        } catch (InvalidConfigurationException ex) {
+            Bukkit.getLogger().log(Level.SEVERE, "Cannot load " + file , ex);
+        }
+
+        return config;
+    }
+
+    private static void write(OutputStream stream, String header, Object values) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        ValueWriter writer = new ValueWriter(out);
+        out.writeBoolean(header.length() > 0);
+        if (header.length() > 0) {
+            writer.writeString(header);
+        }
+        writer.writeValue(values);
+        out.flush();
+    }
+
+    private static final class ValueWriter {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        ValueWriter(final DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof ConfigurationSection) {
+                writeMap(((ConfigurationSection) value).getValues(false));
+            } else if (value instanceof ConfigurationSerializable) {
+                ConfigurationSerializable serializable = (ConfigurationSerializable) value;
+                Map<String, Object> values = new LinkedHashMap<String, Object>();
+                values.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, ConfigurationSerialization.getAlias(serializable.getClass()));
+                values.putAll(serializable.serialize());
+                writeMap(values);
+            } else if (value instanceof Map) {
+                writeMap((Map<?, ?>) value);
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                out.writeByte(LIST);
+                writeSize(list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Set) {
+                Set<?> set = (Set<?>) value;
+                out.writeByte(SET);
+                writeSize(set.size());
+                for (Object element : set) {
+                    writeValue(element);
+                }
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(((Boolean) value) ? TRUE : FALSE);
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER);
+                writeVarLong((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                writeVarLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) value);
+            } else if (value instanceof BigInteger) {
+                byte[] bytes = ((BigInteger) value).toByteArray();
+                out.writeByte(BIG_INTEGER);
+                writeSize(bytes.length);
+                out.write(bytes);
+            } else if (value instanceof Date) {
+                out.writeByte(DATE);
+                out.writeLong(((Date) value).getTime());
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                out.writeByte(BYTES);
+                writeSize(bytes.length);
+                out.write(bytes);
+            } else {
+                throw new IOException("Cannot write value of type " + value.getClass().getName());
+            }
+        }
+
+        private void writeMap(Map<?, ?> map) throws IOException {
+            if (!hasStringKeys(map)) {
+                out.writeByte(KEYED_MAP);
+                writeSize(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+                return;
+            }
+
+            out.writeByte(map.containsKey(ConfigurationSerialization.SERIALIZED_TYPE_KEY) ? SERIALIZED : MAP);
+            writeSize(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString((String) entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        private boolean hasStringKeys(Map<?, ?> map) {
+            for (Object key : map.keySet()) {
+                if (!(key instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes a string the first time it is seen, or its index in the
+         * string table afterwards
+         */
+        void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeSize(index + 1);
+                return;
+            }
+
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeSize(0);
+            writeSize(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeSize(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            // Zig-zag encoding keeps small negative numbers short
+            long bits = (value << 1) ^ (value >> 63);
+            while ((bits & ~0x7FL) != 0) {
+                out.writeByte((int) ((bits & 0x7F) | 0x80));
+                bits >>>= 7;
+            }
+            out.writeByte((int) bits);
+        }
+    }
+
+    private static final class ValueReader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<String>();
+
+        ValueReader(final DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the entries of a map into a section, creating sections for
+         * nested maps like {@link YamlConfiguration} does
+         */
+        void readSection(ConfigurationSection section) throws IOException, InvalidConfigurationException {
+            int size = readSize();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                int tag = in.readUnsignedByte();
+                if (tag == MAP) {
+                    readSection(section.createSection(key));
+                } else {
+                    section.set(key, readValue(tag));
+                }
+            }
+        }
+
+        private Object readValue(int tag) throws IOException, InvalidConfigurationException {
+            switch (tag) {
+            case NULL:
+                return null;
+            case MAP:
+                return readMap();
+            case SERIALIZED:
+                return ConfigurationSerialization.deserializeObject(readMap());
+            case KEYED_MAP:
+                int mapSize = readSize();
+                Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+                for (int i = 0; i < mapSize; i++) {
+                    Object key = readValue(in.readUnsignedByte());
+                    map.put(key, readValue(in.readUnsignedByte()));
+                }
+                return map;
+            case LIST:
+                int listSize = readSize();
+                List<Object> list = new ArrayList<Object>(Math.min(listSize, 1024));
+                for (int i = 0; i < listSize; i++) {
+                    list.add(readValue(in.readUnsignedByte()));
+                }
+                return list;
+            case SET:
+                int setSize = readSize();
+                Set<Object> set = new LinkedHashSet<Object>();
+                for (int i = 0; i < setSize; i++) {
+                    set.add(readValue(in.readUnsignedByte()));
+                }
+                return set;
+            case STRING:
+                return readString();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INTEGER:
+                return (int) readVarLong();
+            case LONG:
+                return readVarLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHARACTER:
+                return in.readChar();
+            case BIG_INTEGER:
+                return new BigInteger(readBytes());
+            case DATE:
+                return new Date(in.readLong());
+            case BYTES:
+                return readBytes();
+            default:
+                throw new InvalidConfigurationException("Unknown value type " + tag);
+            }
+        }
+
+        private Map<String, Object> readMap() throws IOException, InvalidConfigurationException {
+            int size = readSize();
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                map.put(key, readValue(in.readUnsignedByte()));
+            }
+            return map;
+        }
+
+        String readString() throws IOException, InvalidConfigurationException {
+            int index = readSize();
+            if (index > 0) {
+                if (index > strings.size()) {
+                    throw new InvalidConfigurationException("Unknown string " + index);
+                }
+                return strings.get(index - 1);
+            }
+
+            String value = new String(readBytes(), StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[readSize()];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private int readSize() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IOException("Negative size");
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Size is too long");
+        }
+
+        private long readVarLong() throws IOException {
+            long bits = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = in.readUnsignedByte();
+                bits |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (bits >>> 1) ^ -(bits & 1);
+                }
+            }
+            throw new IOException("Number is too long");
+        }
+    }
+}
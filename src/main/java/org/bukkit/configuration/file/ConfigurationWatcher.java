@@ -0,0 +1,364 @@
+package org.bukkit.configuration.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+/**
+ * Reloads {@link FileConfiguration}s when their files are edited.
+ * <p>
+ * Changes to a file are debounced, so the burst of writes an editor makes
+ * when saving only causes one reload. The file is then parsed on the
+ * watcher's own thread into a new configuration of the same class, which
+ * must have a public no-argument constructor. The new contents are compared
+ * to the contents the file had when it was last read or saved, and only the
+ * values which were edited in the file are then set on the watched
+ * configuration, on the thread of the given {@link Executor}, after which
+ * the listener is told which paths changed.
+ * For a plugin, applying changes on the main thread would look like:
+ * <pre>
+ * ConfigurationWatcher watcher = new ConfigurationWatcher(new Executor() {
+ *     public void execute(Runnable task) {
+ *         getServer().getScheduler().runTask(plugin, task);
+ *     }
+ * }, 500, TimeUnit.MILLISECONDS, getLogger());
+ * </pre>
+ * Saving a watched configuration does not cause it to be reloaded. Values
+ * changed in memory but not yet saved are kept, unless the same paths were
+ * edited in the file.
+ */
+public final class ConfigurationWatcher {
+    private final Executor executor;
+    private final long debounce;
+    private final Logger logger;
+    private final Map<Path, Watch> watches = new HashMap<Path, Watch>();
+    private final Map<Path, WatchKey> directories = new HashMap<Path, WatchKey>();
+    private WatchService service;
+    private boolean closed = false;
+
+    /**
+     * Creates a watcher, which starts watching when the first file is
+     * added.
+     *
+     * @param executor Executor to apply changes and notify listeners with.
+     * @param debounce How long a file must go unchanged before it is
+     *     reloaded.
+     * @param unit Unit of the debounce time.
+     * @param logger Logger to report files which fail to load to.
+     * @throws IllegalArgumentException Thrown if any argument is null or the
+     *     debounce time is negative.
+     */
+    public ConfigurationWatcher(Executor executor, long debounce, TimeUnit unit, Logger logger) {
+        org.apache.commons.lang3.Validate.notNull(executor, "Executor cannot be null");
+        org.apache.commons.lang3.Validate.notNull(unit, "Unit cannot be null");
+        org.apache.commons.lang3.Validate.notNull(logger, "Logger cannot be null");
+        org.apache.commons.lang3.Validate.isTrue(debounce >= 0, "Debounce time cannot be negative");
+
+        this.executor = executor;
+        this.debounce = unit.toNanos(debounce);
+        this.logger = logger;
+    }
+
+    /**
+     * Starts reloading a configuration whenever its file changes.
+     * <p>
+     * The file is read right away, and later edits are compared to what it
+     * holds now. Any configuration already watched for this file is
+     * replaced.
+     *
+     * @param file File the configuration is loaded from.
+     * @param config Configuration to update.
+     * @param listener Listener to notify of changed paths, or null.
+     * @throws IOException Thrown if the file cannot be read, or its
+     *     directory cannot be watched.
+     * @throws IllegalArgumentException Thrown if file or config is null, or
+     *     the class of config has no public no-argument constructor.
+     * @throws IllegalStateException Thrown if this watcher was closed.
+     */
+    public synchronized void watch(File file, FileConfiguration config, Listener listener) throws IOException {
+        org.apache.commons.lang3.Validate.notNull(file, "File cannot be null");
+        org.apache.commons.lang3.Validate.notNull(config, "Configuration cannot be null");
+        org.apache.commons.lang3.Validate.validState(!closed, "Watcher is closed");
+
+        Path path = file.getAbsoluteFile().toPath().normalize();
+        Path directory = path.getParent();
+
+        Watch watch = new Watch(path.toFile(), config, listener);
+        try {
+            watch.contents = newConfiguration(config);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException(config.getClass().getName() + " has no public no-argument constructor", ex);
+        }
+        if (watch.file.isFile()) {
+            watch.length = watch.file.length();
+            watch.lastModified = watch.file.lastModified();
+            try {
+                watch.contents.load(watch.file);
+            } catch (InvalidConfigurationException ex) {
+                // Every value of the next valid version counts as edited
+                logger.log(Level.WARNING, "Could not read " + watch.file, ex);
+            }
+        }
+
+        if (service == null) {
+            service = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    watchLoop();
+                }
+            }, "Configuration Watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        if (!directories.containsKey(directory)) {
+            directories.put(directory, directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+        }
+        watches.put(path, watch);
+    }
+
+    /**
+     * Stops reloading the configuration of a file.
+     *
+     * @param file File to stop watching.
+     * @throws IllegalArgumentException Thrown if file is null.
+     */
+    public synchronized void unwatch(File file) {
+        org.apache.commons.lang3.Validate.notNull(file, "File cannot be null");
+
+        Path path = file.getAbsoluteFile().toPath().normalize();
+        if (watches.remove(path) == null) {
+            return;
+        }
+
+        Path directory = path.getParent();
+        for (Path watched : watches.keySet()) {
+            if (watched.getParent().equals(directory)) {
+                return;
+            }
+        }
+        directories.remove(directory).cancel();
+    }
+
+    /**
+     * Stops watching all files and stops the watcher thread. Changes already
+     * handed to the executor are not applied.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        watches.clear();
+        directories.clear();
+
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Could not close configuration watcher", ex);
+            }
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                long wait = -1;
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    for (Watch watch : watches.values()) {
+                        if (watch.pending) {
+                            wait = (wait < 0) ? Math.max(0, watch.due - now) : Math.min(wait, Math.max(0, watch.due - now));
+                        }
+                    }
+                }
+
+                WatchKey key = (wait < 0) ? service.take() : service.poll(wait, TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    handleEvents(key);
+                }
+
+                for (Watch watch : takeDue()) {
+                    reload(watch);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // Closed
+        }
+    }
+
+    private synchronized void handleEvents(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        long due = System.nanoTime() + debounce;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, so check every file in the directory
+                for (Map.Entry<Path, Watch> entry : watches.entrySet()) {
+                    if (entry.getKey().getParent().equals(directory)) {
+                        entry.getValue().schedule(due);
+                    }
+                }
+            } else {
+                Watch watch = watches.get(directory.resolve((Path) event.context()));
+                if (watch != null) {
+                    watch.schedule(due);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private synchronized List<Watch> takeDue() {
+        List<Watch> due = new ArrayList<Watch>();
+        long now = System.nanoTime();
+
+        for (Watch watch : watches.values()) {
+            if (watch.pending && watch.due - now <= 0) {
+                watch.pending = false;
+                due.add(watch);
+            }
+        }
+        return due;
+    }
+
+    private synchronized boolean isWatched(Watch watch) {
+        return !closed && watches.get(watch.file.toPath()) == watch;
+    }
+
+    private static FileConfiguration newConfiguration(FileConfiguration config) throws ReflectiveOperationException {
+        FileConfiguration result = config.getClass().getConstructor().newInstance();
+        result.options().pathSeparator(config.options().pathSeparator());
+        return result;
+    }
+
+    private void reload(final Watch watch) {
+        final File file = watch.file;
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        if (!file.isFile() || (length == watch.length && lastModified == watch.lastModified)) {
+            return;
+        }
+
+        // Saves of the configuration itself are read too, as the contents
+        // later edits are compared to
+        boolean external = watch.config.isExternallyModified(file);
+        final FileConfiguration loaded;
+        try {
+            loaded = newConfiguration(watch.config);
+            loaded.load(file);
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Could not reload " + file, ex);
+            return;
+        } catch (InvalidConfigurationException ex) {
+            logger.log(Level.WARNING, "Could not reload " + file, ex);
+            return;
+        } catch (RuntimeException ex) {
+            logger.log(Level.WARNING, "Could not reload " + file, ex);
+            return;
+        } catch (ReflectiveOperationException ex) {
+            logger.log(Level.SEVERE, "Cannot reload " + file + ", " + watch.config.getClass().getName() + " has no public no-argument constructor", ex);
+            return;
+        }
+
+        if (file.length() != length || file.lastModified() != lastModified) {
+            // Still being written to
+            synchronized (this) {
+                watch.schedule(System.nanoTime() + debounce);
+            }
+            return;
+        }
+
+        // Only this thread reads or replaces the contents
+        final FileConfiguration previous = watch.contents;
+        watch.contents = loaded;
+        watch.length = length;
+        watch.lastModified = lastModified;
+        if (!external) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    apply(watch, previous, loaded, length, lastModified);
+                }
+            });
+        } catch (RuntimeException ex) {
+            logger.log(Level.WARNING, "Could not apply changes to " + file, ex);
+        }
+    }
+
+    private void apply(Watch watch, FileConfiguration previous, FileConfiguration loaded, long length, long lastModified) {
+        // The file may have been saved over, or the watch removed, meanwhile
+        if (!isWatched(watch) || !watch.config.isExternallyModified(watch.file)) {
+            return;
+        }
+
+        Set<String> changed = watch.config.applyFileChanges(watch.file, previous, loaded, length, lastModified);
+
+        if (watch.listener != null && !changed.isEmpty()) {
+            watch.listener.onChange(watch.config, changed);
+        }
+    }
+
+    /**
+     * Notified after a watched configuration was updated from its file.
+     */
+    public interface Listener {
+        /**
+         * Called on the thread of the watcher's executor after the changes
+         * were applied.
+         *
+         * @param config The configuration which changed.
+         * @param changed Paths which were set, changed or removed. Removing a
+         *     whole section only lists the path of the section.
+         */
+        void onChange(FileConfiguration config, Set<String> changed);
+    }
+
+    private static final class Watch {
+        private final File file;
+        private final FileConfiguration config;
+        private final Listener listener;
+        private boolean pending = false;
+        private long due;
+        private FileConfiguration contents;
+        private long length = -1;
+        private long lastModified = -1;
+
+        Watch(final File file, final FileConfiguration config, final Listener listener) {
+            this.file = file;
+            this.config = config;
+            this.listener = listener;
+        }
+
+        void schedule(long due) {
+            this.pending = true;
+            this.due = due;
+        }
+    }
+}
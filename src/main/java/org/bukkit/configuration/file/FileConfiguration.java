@@ -10,17 +10,37 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.configuration.MemorySection;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
 import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
 
 /**
@@ -63,6 +83,26 @@ public abstract class FileConfiguration extends MemoryConfiguration {
         UTF_BIG = trueUTF && UTF8_OVERRIDE;
     }
 
+    // Not a daemon, so queued saves finish before the server exits
+    private static final ExecutorService saveExecutor = new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "Configuration Saver");
+        }
+    });
+
+    // Held across writing, replacing and recording a file, so an older save
+    // can never replace a newer one. Striped by file, and shared by all
+    // configurations saving to the same file.
+    private static final Object[] fileLocks = new Object[32];
+    static {
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new Object();
+        }
+    }
+
+    private final Map<File, PendingSave> pendingSaves = new HashMap<File, PendingSave>();
+    private SaveState savedState;
+
     /**
      * Creates an empty {@link FileConfiguration} with no default values.
      */
@@ -84,9 +124,13 @@ public abstract class FileConfiguration extends MemoryConfiguration {
      * Saves this {@link FileConfiguration} to the specified location.
      * <p>
      * If the file does not exist, it will be created. If already exists, it
-     * will be overwritten. If it cannot be overwritten or created, an
+     * will be replaced atomically. If it cannot be overwritten or created, an
      * exception will be thrown.
      * <p>
+     * A save of the same file which is being written from another thread
+     * finishes first, and a queued {@link #saveAsync(File) asynchronous
+     * save} is dropped.
+     * <p>
      * This method will save using the system default encoding, or possibly
      * using UTF8.
      *
@@ -98,19 +142,117 @@ public abstract class FileConfiguration extends MemoryConfiguration {
     public void save(File file) throws IOException {
         org.apache.commons.lang3.Validate.notNull(file, "File cannot be null");
 
-        Files.createParentDirs(file);
+        SaveState state = new SaveState(file);
+        synchronized (getFileLock(state.file)) {
+            synchronized (pendingSaves) {
+                // A queued save would write older values over these
+                PendingSave pending = pendingSaves.remove(state.file);
+                if (pending != null) {
+                    pending.contents = null;
+                }
+            }
+
+            write(state.file, new SaveTask() {
+                public void write(OutputStream out) throws IOException {
+                    saveToStream(out);
+                }
+            });
+            markSaved(state);
+        }
+    }
+
+    /**
+     * Saves this {@link FileConfiguration} to the specified location without
+     * blocking the calling thread.
+     * <p>
+     * The values are copied on the calling thread, then serialized and
+     * written to the file from a background thread, as described by {@link
+     * #save(File)}. Until a queued save of the same file has started, further
+     * saves replace its contents and return the same future. Saves of the
+     * same file are written in the order they were made.
+     * <p>
+     * Nothing is written if this configuration was last loaded from or saved
+     * to the same file, has not changed since, and the file has not changed
+     * either. Only values which were {@link #set(String, Object) set} count
+     * as changes, so a value modified in place, such as a list or a {@link
+     * ConfigurationSerializable}, must be set again before saving it
+     * asynchronously, or be saved with {@link #save(File)}.
+     *
+     * @param file File to save to.
+     * @return a future completed once the file was written, or completed
+     *     exceptionally if it could not be
+     * @throws IllegalArgumentException Thrown when file is null.
+     */
+    public CompletableFuture<Void> saveAsync(File file) {
+        org.apache.commons.lang3.Validate.notNull(file, "File cannot be null");
 
-        String data = saveToString();
+        SaveState state = new SaveState(file);
+        synchronized (pendingSaves) {
+            PendingSave pending = pendingSaves.get(state.file);
+            if (pending == null && isSaved(state)) {
+                return CompletableFuture.completedFuture(null);
+            }
 
-        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8_OVERRIDE && !UTF_BIG ? Charsets.UTF_8 : Charset.defaultCharset());
+            SaveTask contents = prepareSave();
+            if (pending != null && !pending.started) {
+                pending.contents = contents;
+                pending.state = state;
+                return pending.future;
+            }
 
-        try {
-            writer.write(data);
-        } finally {
-            writer.close();
+            pending = new PendingSave(state.file, contents, state);
+            pendingSaves.put(state.file, pending);
+            saveExecutor.execute(pending);
+            return pending.future;
         }
     }
 
+    /**
+     * Prepares this {@link FileConfiguration} to be saved from another
+     * thread.
+     * <p>
+     * This is called on the thread requesting the save. The returned task
+     * is run on a background thread, so it must not read this configuration
+     * or any of its values. By default, the configuration is saved to a
+     * string right away.
+     *
+     * @return a task writing the saved configuration
+     * @see #saveToStream(OutputStream)
+     */
+    protected SaveTask prepareSave() {
+        final String contents = saveToString();
+        return new SaveTask() {
+            public void write(OutputStream out) throws IOException {
+                writeString(out, contents);
+            }
+        };
+    }
+
+    /**
+     * Writes the contents of a file saved from this {@link
+     * FileConfiguration}. By default, this writes {@link #saveToString()} in
+     * the encoding described by {@link #save(File)}.
+     *
+     * @param out Stream to write to, which is closed by the caller.
+     * @throws IOException Thrown when the stream cannot be written to.
+     */
+    protected void saveToStream(OutputStream out) throws IOException {
+        writeString(out, saveToString());
+    }
+
+    /**
+     * Writes a string in the encoding described by {@link #save(File)}.
+     *
+     * @param out Stream to write to.
+     * @param contents String to write.
+     * @throws IOException Thrown when the stream cannot be written to.
+     */
+    protected static void writeString(OutputStream out, String contents) throws IOException {
+        Writer writer = new OutputStreamWriter(out, UTF8_OVERRIDE && !UTF_BIG ? Charsets.UTF_8 : Charset.defaultCharset());
+        writer.write(contents);
+        writer.flush();
+    }
+
     /**
      * Saves this {@link FileConfiguration} to the specified location.
      * <p>
@@ -166,6 +308,22 @@ public abstract class FileConfiguration extends MemoryConfiguration {
 
         final FileInputStream stream = new FileInputStream(file);
 
+        loadFromStream(stream);
+        markSaved(new SaveState(file));
+    }
+
+    /**
+     * Reads the contents of a file loaded into this {@link
+     * FileConfiguration}, closing the stream afterwards. By default, the
+     * contents are read as text in the encoding described by {@link
+     * #load(File)}.
+     *
+     * @param stream Stream to load from.
+     * @throws IOException Thrown when the stream cannot be read.
+     * @throws InvalidConfigurationException Thrown when the stream is not a
+     *     valid Configuration.
+     */
+    protected void loadFromStream(InputStream stream) throws IOException, InvalidConfigurationException {
         load(new InputStreamReader(stream, UTF8_OVERRIDE && !UTF_BIG ? Charsets.UTF_8 : Charset.defaultCharset()));
     }
 
@@ -279,6 +437,251 @@ public abstract class FileConfiguration extends MemoryConfiguration {
      */
     protected abstract String buildHeader();
 
+    /**
+     * Copies a value into plain maps and lists which can be saved from
+     * another thread. Sections become maps of their values, and every {@link
+     * ConfigurationSerializable} becomes the map of its serialized form,
+     * including its {@link ConfigurationSerialization#SERIALIZED_TYPE_KEY
+     * alias}.
+     *
+     * @param value Value to copy.
+     * @return the copy
+     */
+    protected static Object copyForSave(Object value) {
+        if (value instanceof ConfigurationSection) {
+            return copyForSave(((ConfigurationSection) value).getValues(false));
+        } else if (value instanceof ConfigurationSerializable) {
+            ConfigurationSerializable serializable = (ConfigurationSerializable) value;
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            values.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, ConfigurationSerialization.getAlias(serializable.getClass()));
+            values.putAll(serializable.serialize());
+            return copyForSave(values);
+        } else if (value instanceof Map) {
+            Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                result.put(entry.getKey(), copyForSave(entry.getValue()));
+            }
+            return result;
+        } else if (value instanceof List) {
+            List<Object> result = new ArrayList<Object>();
+            for (Object element : (List<?>) value) {
+                result.add(copyForSave(element));
+            }
+            return result;
+        }
+        return value;
+    }
+
+    private boolean isSaved(SaveState state) {
+        synchronized (pendingSaves) {
+            return savedState != null && savedState.matches(state);
+        }
+    }
+
+    private void markSaved(SaveState state) {
+        state.stamp();
+        synchronized (pendingSaves) {
+            savedState = state;
+        }
+    }
+
+    /**
+     * Checks if the file was changed by something other than this
+     * configuration since it was last loaded or saved.
+     *
+     * @param file File to check.
+     * @return false if the file is unchanged or is about to be saved over.
+     */
+    boolean isExternallyModified(File file) {
+        File path = normalize(file);
+        synchronized (pendingSaves) {
+            if (pendingSaves.containsKey(path)) {
+                return false;
+            }
+            return savedState == null
+                || !savedState.file.equals(path)
+                || savedState.length != file.length()
+                || savedState.lastModified != file.lastModified();
+        }
+    }
+
+    /**
+     * Applies the changes made to a file since it was last read, and records
+     * the file as read. Values changed in memory at other paths are kept,
+     * and are still written by the next save.
+     *
+     * @param file File which was read.
+     * @param previous Contents of the file when it was last read.
+     * @param loaded Contents of the file now.
+     * @param length Size of the file when it was read.
+     * @param lastModified Modification time of the file when it was read.
+     * @return the paths which were changed.
+     */
+    Set<String> applyFileChanges(File file, ConfigurationSection previous, ConfigurationSection loaded, long length, long lastModified) {
+        boolean unchanged;
+        synchronized (pendingSaves) {
+            unchanged = savedState != null && savedState.hasContentsOf(new SaveState(file));
+        }
+
+        Set<String> changed = applyDifferences(previous, loaded);
+
+        // Only in sync with the file if nothing else changed in memory
+        SaveState state = new SaveState(file, unchanged ? getGeneration() : -1);
+        state.length = length;
+        state.lastModified = lastModified;
+        synchronized (pendingSaves) {
+            savedState = state;
+        }
+        return changed;
+    }
+
+    private static Object getFileLock(File file) {
+        return fileLocks[(normalize(file).hashCode() & 0x7fffffff) % fileLocks.length];
+    }
+
+    /**
+     * Gets the absolute, normalized form of a file, so the same file is
+     * recognized whichever path it was given by.
+     */
+    private static File normalize(File file) {
+        return file.getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    private static void write(File file, SaveTask task) throws IOException {
+        Files.createParentDirs(file);
+
+        // Temporary file prefixes must be at least three characters long
+        String prefix = file.getName();
+        while (prefix.length() < 3) {
+            prefix += "_";
+        }
+
+        File temp = File.createTempFile(prefix, ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+
+            try {
+                task.write(out);
+            } finally {
+                out.close();
+            }
+
+            try {
+                java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Writes a saved configuration to a file.
+     *
+     * @see FileConfiguration#prepareSave()
+     */
+    protected interface SaveTask {
+        /**
+         * Writes the saved configuration.
+         *
+         * @param out Stream to write to, which is closed by the caller.
+         * @throws IOException Thrown when the stream cannot be written to.
+         */
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * What a file was last loaded from or saved as: the generation of this
+     * configuration and its defaults, and the size and modification time of
+     * the file afterwards.
+     */
+    private final class SaveState {
+        private final File file;
+        private final long generation;
+        private final Configuration defaults;
+        private final long defaultsGeneration;
+        private long length;
+        private long lastModified;
+
+        SaveState(final File file) {
+            this(file, FileConfiguration.this.getGeneration());
+        }
+
+        SaveState(final File file, final long generation) {
+            this.file = normalize(file);
+            this.generation = generation;
+            this.defaults = getDefaults();
+            this.defaultsGeneration = (defaults instanceof MemorySection) ? ((MemorySection) defaults).getGeneration() : 0;
+        }
+
+        void stamp() {
+            length = file.length();
+            lastModified = file.lastModified();
+        }
+
+        boolean hasContentsOf(SaveState other) {
+            return file.equals(other.file)
+                && generation == other.generation
+                && defaults == other.defaults
+                && defaultsGeneration == other.defaultsGeneration;
+        }
+
+        boolean matches(SaveState other) {
+            return hasContentsOf(other)
+                && file.isFile()
+                && length == file.length()
+                && lastModified == file.lastModified();
+        }
+    }
+
+    private final class PendingSave implements Runnable {
+        private final File file;
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        private SaveTask contents;
+        private SaveState state;
+        private boolean started = false;
+
+        PendingSave(final File file, final SaveTask contents, final SaveState state) {
+            this.file = file;
+            this.contents = contents;
+            this.state = state;
+        }
+
+        public void run() {
+            try {
+                synchronized (getFileLock(file)) {
+                    // Taken under the file lock, so a newer save of the file
+                    // either already dropped these contents or waits for them
+                    SaveTask contents;
+                    SaveState state;
+                    synchronized (pendingSaves) {
+                        started = true;
+                        contents = this.contents;
+                        state = this.state;
+                    }
+
+                    try {
+                        if (contents != null) {
+                            write(file, contents);
+                            markSaved(state);
+                        }
+                    } finally {
+                        // Registered until now, so the watcher ignores the write
+                        synchronized (pendingSaves) {
+                            if (pendingSaves.get(file) == this) {
+                                pendingSaves.remove(file);
+                            }
+                        }
+                    }
+                }
+                future.complete(null);
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+
     @Override
     public FileConfigurationOptions options() {
         if (options == null) {
@@ -66,6 +66,7 @@ public class FileConfigurationOptions extends MemoryConfigurationOptions {
      */
     public FileConfigurationOptions header(String value) {
         this.header = value;
+        markModified();
         return this;
     }
 
@@ -112,6 +113,7 @@ public class FileConfigurationOptions extends MemoryConfigurationOptions {
      */
     public FileConfigurationOptions copyHeader(boolean value) {
         copyHeader = value;
+        markModified();
 
         return this;
     }
@@ -1,11 +1,21 @@
 package org.bukkit.configuration.file;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 
 import org.apache.commons.lang3.Validate;
@@ -13,10 +23,24 @@ import org.bukkit.Bukkit;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
 import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.composer.Composer;
 import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.parser.ParserImpl;
+import org.yaml.snakeyaml.reader.StreamReader;
 import org.yaml.snakeyaml.representer.Representer;
+import org.yaml.snakeyaml.resolver.Resolver;
 
 /**
  * An implementation of {@link Configuration} which saves all files in Yaml.
@@ -25,19 +49,44 @@ import org.yaml.snakeyaml.representer.Representer;
 public class YamlConfiguration extends FileConfiguration {
     protected static final String COMMENT_PREFIX = "# ";
     protected static final String BLANK_CONFIG = "{}\n";
+    private static final int HEADER_LIMIT = 64 * 1024;
     private final DumperOptions yamlOptions = new DumperOptions();
+    private final YamlConstructor yamlConstructor = new YamlConstructor();
     private final Representer yamlRepresenter = new YamlRepresenter();
-    private final Yaml yaml = new Yaml(new YamlConstructor(), yamlRepresenter, yamlOptions);
+    private final Yaml yaml = new Yaml(yamlConstructor, yamlRepresenter, yamlOptions);
 
     @Override
     public String saveToString() {
-        yamlOptions.setIndent(options().indent());
+        return dump(yaml, yamlOptions, yamlRepresenter, options().indent(), buildHeader(), getValues(false));
+    }
+
+    /**
+     * Copies the values of this configuration into plain maps and lists,
+     * serializing every {@link ConfigurationSerializable} on the calling
+     * thread, and dumps the copy with a YAML instance of its own.
+     */
+    @Override
+    protected SaveTask prepareSave() {
+        final int indent = options().indent();
+        final String header = buildHeader();
+        final Object values = copyForSave(this);
+
+        return new SaveTask() {
+            public void write(OutputStream out) throws IOException {
+                DumperOptions dumperOptions = new DumperOptions();
+                Representer representer = new YamlRepresenter();
+                writeString(out, dump(new Yaml(new YamlConstructor(), representer, dumperOptions), dumperOptions, representer, indent, header, values));
+            }
+        };
+    }
+
+    private static String dump(Yaml yaml, DumperOptions yamlOptions, Representer yamlRepresenter, int indent, String header, Object values) {
+        yamlOptions.setIndent(indent);
         yamlOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
         yamlOptions.setAllowUnicode(SYSTEM_UTF);
         yamlRepresenter.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
 
-        String header = buildHeader();
-        String dump = yaml.dump(getValues(false));
+        String dump = yaml.dump(values);
 
         if (dump.equals(BLANK_CONFIG)) {
             dump = "";
@@ -50,23 +99,291 @@ public class YamlConfiguration extends FileConfiguration {
     public void loadFromString(String contents) throws InvalidConfigurationException {
         org.apache.commons.lang3.Validate.notNull(contents, "Contents cannot be null");
 
-        Map<?, ?> input;
+        load(new StringReader(contents), parseHeader(contents));
+    }
+
+    /**
+     * Loads this {@link YamlConfiguration} from the specified reader.
+     * <p>
+     * The sections are built straight from the YAML events as they are
+     * parsed, so only the values of the current path are held as YAML nodes,
+     * and the reader is never read into a single string. Only the comments
+     * before the first value are considered for the header.
+     *
+     * @param reader the reader to load from
+     * @throws IOException thrown when underlying reader throws an IOException
+     * @throws InvalidConfigurationException thrown when the reader does not
+     *      represent a valid Configuration
+     * @throws IllegalArgumentException thrown when reader is null
+     */
+    @Override
+    public void load(Reader reader) throws IOException, InvalidConfigurationException {
+        org.apache.commons.lang3.Validate.notNull(reader, "Reader cannot be null");
+
+        BufferedReader input = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+
+        try {
+            load(input, parseHeader(readHeader(input)));
+        } finally {
+            input.close();
+        }
+    }
+
+    private void load(Reader reader, String header) throws InvalidConfigurationException {
         try {
-            input = (Map<?, ?>) yaml.load(contents);
+            new SectionComposer(reader).load(header);
         } catch (YAMLException e) {
             throw new InvalidConfigurationException(e);
-        } catch (ClassCastException e) {
-            throw new InvalidConfigurationException("Top level is not a Map.");
         }
+    }
+
+    /**
+     * Reads the leading comment lines of a reader, leaving the reader at the
+     * position it had before.
+     *
+     * @param input the reader to read from
+     * @return the comment and blank lines before the first value, followed
+     *     by the line of the first value
+     * @throws IOException thrown when the reader throws an IOException
+     */
+    private String readHeader(BufferedReader input) throws IOException {
+        StringBuilder result = new StringBuilder();
+        StringBuilder line = new StringBuilder();
+
+        input.mark(HEADER_LIMIT);
+        for (int read = 0; read < HEADER_LIMIT - 1; read++) {
+            int c = input.read();
+            if (c != -1 && c != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+                continue;
+            }
+
+            result.append(line).append('\n');
+            if (c == -1 || (line.length() > 0 && line.charAt(0) != '#')) {
+                break;
+            }
+            line.setLength(0);
+        }
+        input.reset();
+
+        return result.toString();
+    }
+
+    /**
+     * Builds sections from a mapping node, creating a section for every
+     * nested mapping and constructing every other value on its own.
+     *
+     * @param input the mapping node
+     * @param section the section to fill
+     */
+    protected void convertNodesToSections(MappingNode input, ConfigurationSection section) {
+        yamlConstructor.flattenMapping(input);
+        for (NodeTuple tuple : input.getValue()) {
+            setNode(section, getKey(tuple.getKeyNode()), tuple.getValueNode());
+        }
+    }
+
+    private String getKey(Node keyNode) {
+        if (keyNode instanceof ScalarNode && Tag.STR.equals(keyNode.getTag())) {
+            return ((ScalarNode) keyNode).getValue();
+        }
+        return String.valueOf(yamlConstructor.construct(keyNode));
+    }
+
+    private void setNode(ConfigurationSection section, String key, Node value) {
+        if (value instanceof MappingNode && Tag.MAP.equals(value.getTag()) && !isSerializedObject((MappingNode) value)) {
+            convertNodesToSections((MappingNode) value, section.createSection(key));
+        } else {
+            section.set(key, yamlConstructor.construct(value));
+        }
+    }
+
+    private boolean isSerializedObject(MappingNode node) {
+        yamlConstructor.flattenMapping(node);
+        for (NodeTuple tuple : node.getValue()) {
+            Node keyNode = tuple.getKeyNode();
+            if (keyNode instanceof ScalarNode && ConfigurationSerialization.SERIALIZED_TYPE_KEY.equals(((ScalarNode) keyNode).getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the sections of a configuration from the events of a parser.
+     * Plain mappings become sections as their events arrive, and only the
+     * other values are composed into nodes, one at a time, by the composer.
+     * Anchors, aliases and their limits work as they do for a whole document.
+     */
+    private final class SectionComposer extends Composer {
+        private final int nestingDepthLimit;
+
+        SectionComposer(final Reader reader) {
+            this(reader, new LoaderOptions());
+        }
+
+        private SectionComposer(final Reader reader, final LoaderOptions options) {
+            super(new ParserImpl(new StreamReader(reader), options), new Resolver(), options);
+            this.nestingDepthLimit = options.getNestingDepthLimit();
+        }
+
+        void load(String header) throws InvalidConfigurationException {
+            parser.getEvent();
+            if (parser.checkEvent(Event.ID.StreamEnd)) {
+                setHeader(header);
+                return;
+            }
+
+            parser.getEvent();
+            if (isSection(parser.peekEvent())) {
+                setHeader(header);
+                buildSection(YamlConfiguration.this, (MappingStartEvent) parser.getEvent(), 0);
+            } else {
+                Node node = composeValueNode(null);
+                if (!(node instanceof MappingNode) && !Tag.NULL.equals(node.getTag())) {
+                    throw new InvalidConfigurationException("Top level is not a Map.");
+                }
+                setHeader(header);
+                if (node instanceof MappingNode) {
+                    convertNodesToSections((MappingNode) node, YamlConfiguration.this);
+                }
+            }
+
+            parser.getEvent();
+            if (!parser.checkEvent(Event.ID.StreamEnd)) {
+                throw new YAMLException("expected a single document in the stream, but found another document");
+            }
+        }
+
+        private void setHeader(String header) {
+            if (header.length() > 0) {
+                options().header(header);
+            }
+        }
+
+        private boolean isSection(Event event) {
+            if (!(event instanceof MappingStartEvent) || ((MappingStartEvent) event).getAnchor() != null) {
+                return false;
+            }
+            String tag = ((MappingStartEvent) event).getTag();
+            return tag == null || tag.equals("!") || tag.equals(Tag.MAP.getValue());
+        }
+
+        /**
+         * Fills a section with the entries of a plain mapping, up to and
+         * including its end event.
+         *
+         * @return the deserialized object, if the mapping turned out to be a
+         *     serialized object rather than a section
+         */
+        private Object buildSection(ConfigurationSection section, MappingStartEvent start, int depth) {
+            if (depth > nestingDepthLimit) {
+                throw new YAMLException("Nesting Depth exceeded max " + nestingDepthLimit);
+            }
+
+            Set<String> keys = new LinkedHashSet<String>();
+            Set<String> explicitKeys = new HashSet<String>();
+            while (!parser.checkEvent(Event.ID.MappingEnd)) {
+                Node keyNode = composeKeyNode(null);
+                if (Tag.MERGE.equals(keyNode.getTag())) {
+                    merge(section, composeValueNode(null), keys);
+                    continue;
+                }
 
-        String header = parseHeader(contents);
-        if (header.length() > 0) {
-            options().header(header);
+                String key = getKey(keyNode);
+                if (depth > 0 && keys.isEmpty() && ConfigurationSerialization.SERIALIZED_TYPE_KEY.equals(key)) {
+                    return composeSerializedObject(start, keyNode);
+                }
+                if (!explicitKeys.add(key)) {
+                    // The last of duplicate keys wins, in its own position
+                    section.set(key, null);
+                    keys.remove(key);
+                }
+                keys.add(key);
+
+                if (isSection(parser.peekEvent())) {
+                    ConfigurationSection child = section.createSection(key);
+                    Object value = buildSection(child, (MappingStartEvent) parser.getEvent(), depth + 1);
+                    if (value != null) {
+                        section.set(key, value);
+                    }
+                } else {
+                    setNode(section, key, composeValueNode(null));
+                }
+            }
+            parser.getEvent();
+
+            if (depth > 0 && keys.contains(ConfigurationSerialization.SERIALIZED_TYPE_KEY)) {
+                Map<String, Object> typed = new LinkedHashMap<String, Object>();
+                for (String key : keys) {
+                    typed.put(key, toPlainValue(section.get(key)));
+                }
+                try {
+                    return ConfigurationSerialization.deserializeObject(typed);
+                } catch (IllegalArgumentException ex) {
+                    throw new YAMLException("Could not deserialize object", ex);
+                }
+            }
+            return null;
         }
 
-        if (input != null) {
-            convertMapsToSections(input, this);
+        /**
+         * Composes the rest of a mapping whose first key marks it as a
+         * serialized object, and constructs the object.
+         */
+        private Object composeSerializedObject(MappingStartEvent start, Node typeKey) {
+            List<NodeTuple> tuples = new ArrayList<NodeTuple>();
+            MappingNode node = new MappingNode(Tag.MAP, true, tuples, start.getStartMark(), null, start.getFlowStyle());
+            tuples.add(new NodeTuple(typeKey, composeValueNode(node)));
+            while (!parser.checkEvent(Event.ID.MappingEnd)) {
+                Node keyNode = composeKeyNode(node);
+                if (Tag.MERGE.equals(keyNode.getTag())) {
+                    node.setMerged(true);
+                }
+                tuples.add(new NodeTuple(keyNode, composeValueNode(node)));
+            }
+            parser.getEvent();
+            return yamlConstructor.construct(node);
+        }
+
+        /**
+         * Adds the entries of merged mappings which are not in the section
+         * already, the way merge keys are resolved in a whole document.
+         */
+        private void merge(ConfigurationSection section, Node value, Set<String> keys) {
+            List<Node> sources;
+            if (value instanceof SequenceNode) {
+                sources = ((SequenceNode) value).getValue();
+            } else {
+                sources = Collections.singletonList(value);
+            }
+
+            for (Node source : sources) {
+                if (!(source instanceof MappingNode)) {
+                    throw new YAMLException("expected a mapping or list of mappings for merging, but found " + source.getNodeId());
+                }
+                yamlConstructor.flattenMapping((MappingNode) source);
+                for (NodeTuple tuple : ((MappingNode) source).getValue()) {
+                    String key = getKey(tuple.getKeyNode());
+                    if (keys.add(key)) {
+                        setNode(section, key, tuple.getValueNode());
+                    }
+                }
+            }
+        }
+    }
+
+    private static Object toPlainValue(Object value) {
+        if (!(value instanceof ConfigurationSection)) {
+            return value;
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : ((ConfigurationSection) value).getValues(false).entrySet()) {
+            result.put(entry.getKey(), toPlainValue(entry.getValue()));
         }
+        return result;
     }
 
     protected void convertMapsToSections(Map<?, ?> input, ConfigurationSection section) {
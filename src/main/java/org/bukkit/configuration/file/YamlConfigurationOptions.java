@@ -66,6 +66,7 @@ public class YamlConfigurationOptions extends FileConfigurationOptions {
         org.apache.commons.lang3.Validate.isTrue(value <= 9, "Indent cannot be greater than 9 characters");
 
         this.indent = value;
+        markModified();
         return this;
     }
 }
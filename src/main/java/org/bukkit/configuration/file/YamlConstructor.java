@@ -3,6 +3,7 @@ package org.bukkit.configuration.file;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import org.yaml.snakeyaml.nodes.MappingNode;
 import org.yaml.snakeyaml.nodes.Node;
 import org.yaml.snakeyaml.constructor.SafeConstructor;
 import org.yaml.snakeyaml.error.YAMLException;
@@ -18,6 +19,27 @@ public class YamlConstructor extends SafeConstructor {
         this.yamlConstructors.put(Tag.MAP, new ConstructCustomObject());
     }
 
+    /**
+     * Constructs the object of a single node, as if it was a document of its
+     * own.
+     *
+     * @param node the node to construct
+     * @return the constructed object
+     */
+    public Object construct(Node node) {
+        return constructDocument(node);
+    }
+
+    /**
+     * Resolves the merge keys of a mapping node in place.
+     *
+     * @param node the mapping node
+     */
+    @Override
+    public void flattenMapping(MappingNode node) {
+        super.flattenMapping(node);
+    }
+
     private class ConstructCustomObject extends ConstructYamlMap {
         @Override
         public Object construct(Node node) {
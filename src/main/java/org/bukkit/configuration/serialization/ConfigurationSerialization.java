@@ -4,7 +4,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -239,6 +241,23 @@ public class ConfigurationSerialization {
         }
     }
 
+    /**
+     * Gets the aliases registered to classes defined by the given class
+     * loader
+     *
+     * @param loader Class loader of the classes
+     * @return Aliases of the classes
+     */
+    public static List<String> getAliases(ClassLoader loader) {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Class<? extends ConfigurationSerializable>> entry : aliases.entrySet()) {
+            if (entry.getValue().getClassLoader() == loader) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
     /**
      * Attempts to get a registered {@link ConfigurationSerializable} class by
      * its alias
@@ -0,0 +1,89 @@
+package org.bukkit.event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.plugin.RegisteredListener;
+
+/**
+ * The listeners of a {@link HandlerList} which should receive one concrete
+ * event class, in call order.
+ * <p>
+ * A plan only holds listeners of enabled plugins whose registered event type
+ * accepts the event class. For {@link Cancellable} events it also records,
+ * for every position, the next listener that still wants cancelled events,
+ * so a cancelled event can jump straight past the listeners that ignore it.
+ * <p>
+ * Plans are built by {@link HandlerList#getDispatchPlan(Class)} and are
+ * discarded whenever the handler list is changed or plugins are enabled or
+ * disabled.
+ */
+public final class DispatchPlan {
+    private final RegisteredListener[] source;
+    private final RegisteredListener[] listeners;
+    private final int[] nextForCancelled;
+    private final boolean cancellable;
+
+    DispatchPlan(final RegisteredListener[] source, final Class<? extends Event> eventClass) {
+        this.source = source;
+        this.cancellable = Cancellable.class.isAssignableFrom(eventClass);
+
+        List<RegisteredListener> entries = new ArrayList<RegisteredListener>(source.length);
+        for (RegisteredListener listener : source) {
+            if (!listener.getPlugin().isEnabled()) {
+                continue;
+            }
+            Class<? extends Event> type = listener.getEventType();
+            if (type != null && !type.isAssignableFrom(eventClass)) {
+                continue;
+            }
+            entries.add(listener);
+        }
+        listeners = entries.toArray(new RegisteredListener[entries.size()]);
+
+        nextForCancelled = new int[listeners.length + 1];
+        nextForCancelled[listeners.length] = listeners.length;
+        for (int i = listeners.length - 1; i >= 0; i--) {
+            nextForCancelled[i] = listeners[i].isIgnoringCancelled() ? nextForCancelled[i + 1] : i;
+        }
+    }
+
+    /**
+     * Gets the baked handler array this plan was built from
+     *
+     * @return the source handler array
+     */
+    RegisteredListener[] getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the listeners to call, in priority order
+     *
+     * @return the listeners of this plan
+     */
+    public RegisteredListener[] getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Gets whether the event class of this plan is {@link Cancellable}
+     *
+     * @return true if the events of this plan can be cancelled
+     */
+    public boolean isCancellable() {
+        return cancellable;
+    }
+
+    /**
+     * Gets the index of the first listener, at or after the given index,
+     * which should still be called for a cancelled event
+     *
+     * @param index index to start from
+     * @return index of the next listener accepting cancelled events, or the
+     *     number of listeners if there is none
+     */
+    public int getNextForCancelled(int index) {
+        return nextForCancelled[index];
+    }
+}
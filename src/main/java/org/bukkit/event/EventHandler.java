@@ -34,4 +34,17 @@ public @interface EventHandler {
      * not called. Otherwise, the method is always called.
      */
     boolean ignoreCancelled() default false;
+
+    /**
+     * Define if the handler receives events in batches.
+     * <p>
+     * A batch handler takes a single {@link java.util.List} parameter whose
+     * element type is the event class, for example
+     * {@code List<BlockPhysicsEvent>}. Events fired together through {@link
+     * org.bukkit.plugin.PluginManager#callEvents(java.util.Collection)} are
+     * passed in one call, while events fired one at a time are passed as a
+     * list of one. If ignoreCancelled is true, cancelled events are left out
+     * of the list.
+     */
+    boolean batch() default false;
 }
@@ -5,6 +5,7 @@ import org.bukkit.plugin.RegisteredListener;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A list of event handlers, stored per-event. Based on lahwran's fevents.
@@ -14,6 +15,10 @@ public class HandlerList {
     /**
      * Handler array. This field being an array is the key to this system's
      * speed.
+     * <p>
+     * Any change to the handler slots is published by resetting this field
+     * after the change, so a dispatching thread either sees the previous
+     * array or bakes a new one, without holding any lock.
      */
     private volatile RegisteredListener[] handlers = null;
 
@@ -24,11 +29,37 @@ public class HandlerList {
      */
     private final EnumMap<EventPriority, ArrayList<RegisteredListener>> handlerslots;
 
+    /**
+     * Whether any of the handler slots holds a listener. Kept up to date by
+     * every change to the slots, so it can be read without baking.
+     */
+    private volatile boolean hasListeners = false;
+
+    /**
+     * Dispatch plans per concrete event class. A plan is only valid for the
+     * handler array it was built from and is rebuilt on the next dispatch
+     * once that array has been replaced.
+     */
+    private final Map<Class<? extends Event>, DispatchPlan> plans = new ConcurrentHashMap<Class<? extends Event>, DispatchPlan>();
+
     /**
      * List of all HandlerLists which have been created, for use in bakeAll()
      */
     private static ArrayList<HandlerList> allLists = new ArrayList<HandlerList>();
 
+    /**
+     * Reverse index of the HandlerLists each plugin has listeners registered
+     * in, so per-plugin operations do not need to walk allLists. Guarded by
+     * its own monitor, which is never held while locking a HandlerList.
+     */
+    private static final Map<Plugin, Set<HandlerList>> pluginLists = new HashMap<Plugin, Set<HandlerList>>();
+
+    /**
+     * Reverse index of the HandlerLists each listener is registered in.
+     * Guarded by the monitor of {@link #pluginLists}.
+     */
+    private static final Map<Listener, Set<HandlerList>> listenerLists = new HashMap<Listener, Set<HandlerList>>();
+
     /**
      * Bake all handler lists. Best used just after all normal event
      * registration is complete, ie just after all plugins are loaded if
@@ -42,6 +73,55 @@ public class HandlerList {
         }
     }
 
+    /**
+     * Discard the baked handlers and dispatch plans of all handler lists, so
+     * they are rebuilt on their next use. Must be called whenever a plugin
+     * with registered listeners is enabled or disabled.
+     */
+    public static void invalidateDispatchPlans() {
+        synchronized (allLists) {
+            for (HandlerList h : allLists) {
+                synchronized (h) {
+                    h.handlers = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Discard the baked handlers and dispatch plans of the handler lists a
+     * specific plugin has listeners registered in. Must be called whenever
+     * that plugin is enabled or disabled.
+     *
+     * @param plugin plugin whose enabled state changed
+     */
+    public static void invalidateDispatchPlans(Plugin plugin) {
+        for (HandlerList h : getIndexed(pluginLists, plugin)) {
+            synchronized (h) {
+                h.handlers = null;
+            }
+        }
+    }
+
+    /**
+     * Discard the dispatch plans built for event classes defined by the given
+     * class loader, so they do not keep the loader alive once its plugin is
+     * disabled.
+     *
+     * @param loader class loader of the disabled plugin
+     */
+    public static void discardDispatchPlans(ClassLoader loader) {
+        synchronized (allLists) {
+            for (HandlerList h : allLists) {
+                for (Class<? extends Event> eventClass : h.plans.keySet()) {
+                    if (eventClass.getClassLoader() == loader) {
+                        h.plans.remove(eventClass);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Unregister all listeners from all handler lists.
      */
@@ -52,10 +132,15 @@ public class HandlerList {
                     for (List<RegisteredListener> list : h.handlerslots.values()) {
                         list.clear();
                     }
+                    h.hasListeners = false;
                     h.handlers = null;
                 }
             }
         }
+        synchronized (pluginLists) {
+            pluginLists.clear();
+            listenerLists.clear();
+        }
     }
 
     /**
@@ -64,10 +149,8 @@ public class HandlerList {
      * @param plugin plugin to unregister
      */
     public static void unregisterAll(Plugin plugin) {
-        synchronized (allLists) {
-            for (HandlerList h : allLists) {
-                h.unregister(plugin);
-            }
+        for (HandlerList h : getIndexed(pluginLists, plugin)) {
+            h.unregister(plugin);
         }
     }
 
@@ -77,9 +160,34 @@ public class HandlerList {
      * @param listener listener to unregister
      */
     public static void unregisterAll(Listener listener) {
-        synchronized (allLists) {
-            for (HandlerList h : allLists) {
-                h.unregister(listener);
+        for (HandlerList h : getIndexed(listenerLists, listener)) {
+            h.unregister(listener);
+        }
+    }
+
+    private static <K> List<HandlerList> getIndexed(Map<K, Set<HandlerList>> index, K key) {
+        synchronized (pluginLists) {
+            Set<HandlerList> lists = index.get(key);
+            return lists == null ? Collections.<HandlerList>emptyList() : new ArrayList<HandlerList>(lists);
+        }
+    }
+
+    private static <K> void addIndexed(Map<K, Set<HandlerList>> index, K key, HandlerList list) {
+        synchronized (pluginLists) {
+            Set<HandlerList> lists = index.get(key);
+            if (lists == null) {
+                lists = new LinkedHashSet<HandlerList>();
+                index.put(key, lists);
+            }
+            lists.add(list);
+        }
+    }
+
+    private static <K> void removeIndexed(Map<K, Set<HandlerList>> index, K key, HandlerList list) {
+        synchronized (pluginLists) {
+            Set<HandlerList> lists = index.get(key);
+            if (lists != null && lists.remove(list) && lists.isEmpty()) {
+                index.remove(key);
             }
         }
     }
@@ -107,8 +215,11 @@ public class HandlerList {
     public synchronized void register(RegisteredListener listener) {
         if (handlerslots.get(listener.getPriority()).contains(listener))
             throw new IllegalStateException("This listener is already registered to priority " + listener.getPriority().toString());
-        handlers = null;
         handlerslots.get(listener.getPriority()).add(listener);
+        addIndexed(pluginLists, listener.getPlugin(), this);
+        addIndexed(listenerLists, listener.getListener(), this);
+        hasListeners = true;
+        handlers = null;
     }
 
     /**
@@ -129,6 +240,13 @@ public class HandlerList {
      */
     public synchronized void unregister(RegisteredListener listener) {
         if (handlerslots.get(listener.getPriority()).remove(listener)) {
+            if (!contains(listener.getPlugin())) {
+                removeIndexed(pluginLists, listener.getPlugin(), this);
+            }
+            if (!contains(listener.getListener())) {
+                removeIndexed(listenerLists, listener.getListener(), this);
+            }
+            updateHasListeners();
             handlers = null;
         }
     }
@@ -139,16 +257,29 @@ public class HandlerList {
      * @param plugin plugin to remove
      */
     public synchronized void unregister(Plugin plugin) {
-        boolean changed = false;
+        Set<Listener> removed = null;
         for (List<RegisteredListener> list : handlerslots.values()) {
             for (ListIterator<RegisteredListener> i = list.listIterator(); i.hasNext();) {
-                if (i.next().getPlugin().equals(plugin)) {
+                RegisteredListener registration = i.next();
+                if (registration.getPlugin().equals(plugin)) {
                     i.remove();
-                    changed = true;
+                    if (removed == null) {
+                        removed = new HashSet<Listener>();
+                    }
+                    removed.add(registration.getListener());
+                }
+            }
+        }
+        if (removed != null) {
+            removeIndexed(pluginLists, plugin, this);
+            for (Listener listener : removed) {
+                if (!contains(listener)) {
+                    removeIndexed(listenerLists, listener, this);
                 }
             }
+            updateHasListeners();
+            handlers = null;
         }
-        if (changed) handlers = null;
     }
 
     /**
@@ -157,16 +288,51 @@ public class HandlerList {
      * @param listener listener to remove
      */
     public synchronized void unregister(Listener listener) {
-        boolean changed = false;
+        Set<Plugin> removed = null;
         for (List<RegisteredListener> list : handlerslots.values()) {
             for (ListIterator<RegisteredListener> i = list.listIterator(); i.hasNext();) {
-                if (i.next().getListener().equals(listener)) {
+                RegisteredListener registration = i.next();
+                if (registration.getListener().equals(listener)) {
                     i.remove();
-                    changed = true;
+                    if (removed == null) {
+                        removed = new HashSet<Plugin>();
+                    }
+                    removed.add(registration.getPlugin());
+                }
+            }
+        }
+        if (removed != null) {
+            removeIndexed(listenerLists, listener, this);
+            for (Plugin plugin : removed) {
+                if (!contains(plugin)) {
+                    removeIndexed(pluginLists, plugin, this);
+                }
+            }
+            updateHasListeners();
+            handlers = null;
+        }
+    }
+
+    private boolean contains(Plugin plugin) {
+        for (List<RegisteredListener> list : handlerslots.values()) {
+            for (RegisteredListener registration : list) {
+                if (registration.getPlugin().equals(plugin)) {
+                    return true;
                 }
             }
         }
-        if (changed) handlers = null;
+        return false;
+    }
+
+    private boolean contains(Listener listener) {
+        for (List<RegisteredListener> list : handlerslots.values()) {
+            for (RegisteredListener registration : list) {
+                if (registration.getListener().equals(listener)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -178,9 +344,31 @@ public class HandlerList {
         for (Entry<EventPriority, ArrayList<RegisteredListener>> entry : handlerslots.entrySet()) {
             entries.addAll(entry.getValue());
         }
+        hasListeners = !entries.isEmpty();
+        plans.clear();
         handlers = entries.toArray(new RegisteredListener[entries.size()]);
     }
 
+    private void updateHasListeners() {
+        for (List<RegisteredListener> list : handlerslots.values()) {
+            if (!list.isEmpty()) {
+                hasListeners = true;
+                return;
+            }
+        }
+        hasListeners = false;
+    }
+
+    /**
+     * Checks whether any listener is registered in this handler list,
+     * without baking it
+     *
+     * @return true if at least one listener is registered
+     */
+    public boolean hasListeners() {
+        return hasListeners;
+    }
+
     /**
      * Get the baked registered listeners associated with this handler list
      *
@@ -192,6 +380,23 @@ public class HandlerList {
         return handlers;
     }
 
+    /**
+     * Get the dispatch plan for a concrete event class, building it from the
+     * baked handler array if needed
+     *
+     * @param eventClass the exact class of the event being dispatched
+     * @return the dispatch plan for the event class
+     */
+    public DispatchPlan getDispatchPlan(Class<? extends Event> eventClass) {
+        RegisteredListener[] handlers = getRegisteredListeners();
+        DispatchPlan plan = plans.get(eventClass);
+        if (plan == null || plan.getSource() != handlers) {
+            plan = new DispatchPlan(handlers, eventClass);
+            plans.put(eventClass, plan);
+        }
+        return plan;
+    }
+
     /**
      * Get a specific plugin's registered listeners associated with this
      * handler list
@@ -201,14 +406,12 @@ public class HandlerList {
      */
     public static ArrayList<RegisteredListener> getRegisteredListeners(Plugin plugin) {
         ArrayList<RegisteredListener> listeners = new ArrayList<RegisteredListener>();
-        synchronized (allLists) {
-            for (HandlerList h : allLists) {
-                synchronized (h) {
-                    for (List<RegisteredListener> list : h.handlerslots.values()) {
-                        for (RegisteredListener listener : list) {
-                            if (listener.getPlugin().equals(plugin)) {
-                                listeners.add(listener);
-                            }
+        for (HandlerList h : getIndexed(pluginLists, plugin)) {
+            synchronized (h) {
+                for (List<RegisteredListener> list : h.handlerslots.values()) {
+                    for (RegisteredListener listener : list) {
+                        if (listener.getPlugin().equals(plugin)) {
+                            listeners.add(listener);
                         }
                     }
                 }
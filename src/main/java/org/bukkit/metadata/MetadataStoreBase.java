@@ -119,6 +119,25 @@ public abstract class MetadataStoreBase<T> {
         }
     }
 
+    /**
+     * Counts the metadata values in the metadata store that originate from
+     * the given plugin.
+     *
+     * @param owningPlugin the plugin owning the values.
+     * @return the number of values owned by the plugin.
+     * @throws IllegalArgumentException If plugin is null
+     */
+    public synchronized int countMetadata(Plugin owningPlugin) {
+        org.apache.commons.lang3.Validate.notNull(owningPlugin, "Plugin cannot be null");
+        int count = 0;
+        for (Map<Plugin, MetadataValue> values : metadataMap.values()) {
+            if (values.containsKey(owningPlugin)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      * Creates a unique name for the object receiving metadata by combining
      * unique data from the subject with a metadataKey.
@@ -0,0 +1,132 @@
+package org.bukkit.plugin;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.DispatchPlan;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+
+/**
+ * Dispatches asynchronous events on virtual threads for a {@link
+ * SimplePluginManager}.
+ * <p>
+ * Listeners are called one after another in priority order, exactly like
+ * {@link SimplePluginManager#callEvent(Event)}, except for {@link
+ * EventPriority#MONITOR} listeners: those may not change the outcome of the
+ * event, so they are all called at the same time. The number of listener
+ * calls running at once for a single plugin can be bounded, so one slow
+ * plugin cannot pile up threads.
+ */
+final class AsyncEventDispatcher {
+    private final SimplePluginManager manager;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Bukkit Async Event Dispatcher-", 0).factory());
+    private final ConcurrentMap<Plugin, Semaphore> permits = new ConcurrentHashMap<Plugin, Semaphore>();
+    private volatile int pluginConcurrency = 0;
+
+    AsyncEventDispatcher(final SimplePluginManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Gets the maximum number of listener calls that may run at once for a
+     * single plugin
+     *
+     * @return the limit, or 0 if unbounded
+     */
+    int getPluginConcurrency() {
+        return pluginConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of listener calls that may run at once for a
+     * single plugin. Calls already waiting for the previous limit are not
+     * affected.
+     *
+     * @param limit the limit, or 0 if unbounded
+     */
+    void setPluginConcurrency(int limit) {
+        org.apache.commons.lang3.Validate.isTrue(limit >= 0, "Limit cannot be negative");
+        pluginConcurrency = limit;
+        permits.clear();
+    }
+
+    void removePlugin(Plugin plugin) {
+        permits.remove(plugin);
+    }
+
+    <E extends Event> CompletableFuture<E> dispatch(final E event) {
+        return CompletableFuture.supplyAsync(() -> {
+            fire(event);
+            return event;
+        }, executor);
+    }
+
+    private void fire(Event event) {
+        DispatchPlan plan = event.getHandlers().getDispatchPlan(event.getClass());
+        RegisteredListener[] listeners = plan.getListeners();
+
+        int monitor = listeners.length;
+        while (monitor > 0 && listeners[monitor - 1].getPriority() == EventPriority.MONITOR) {
+            monitor--;
+        }
+
+        Cancellable cancellable = plan.isCancellable() ? (Cancellable) event : null;
+        for (int i = 0; i < monitor; i++) {
+            if (cancellable != null && cancellable.isCancelled()) {
+                i = plan.getNextForCancelled(i);
+                if (i >= monitor) {
+                    break;
+                }
+            }
+            call(listeners[i], event);
+        }
+
+        if (listeners.length - monitor == 1) {
+            call(listeners[monitor], event);
+        } else if (listeners.length - monitor > 1) {
+            CompletableFuture<?>[] calls = new CompletableFuture<?>[listeners.length - monitor];
+            for (int i = monitor; i < listeners.length; i++) {
+                final RegisteredListener registration = listeners[i];
+                calls[i - monitor] = CompletableFuture.runAsync(() -> call(registration, event), executor);
+            }
+            CompletableFuture.allOf(calls).join();
+        }
+    }
+
+    private void call(RegisteredListener registration, Event event) {
+        Semaphore semaphore = getPermits(registration.getPlugin());
+        if (semaphore == null) {
+            manager.callListener(registration, event);
+            return;
+        }
+
+        semaphore.acquireUninterruptibly();
+        try {
+            manager.callListener(registration, event);
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private Semaphore getPermits(Plugin plugin) {
+        int limit = pluginConcurrency;
+        if (limit == 0) {
+            return null;
+        }
+        Semaphore semaphore = permits.get(plugin);
+        if (semaphore == null) {
+            semaphore = new Semaphore(limit);
+            Semaphore previous = permits.putIfAbsent(plugin, semaphore);
+            if (previous != null) {
+                semaphore = previous;
+            }
+        }
+        return semaphore;
+    }
+}
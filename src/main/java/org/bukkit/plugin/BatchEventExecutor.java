@@ -0,0 +1,25 @@
+package org.bukkit.plugin;
+
+import java.util.List;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+
+/**
+ * An {@link EventExecutor} which can also receive several events of the same
+ * class in one call
+ *
+ * @see PluginManager#callEvents(java.util.Collection)
+ */
+public interface BatchEventExecutor extends EventExecutor {
+
+    /**
+     * Passes a batch of events to the listener at once
+     *
+     * @param listener The listener to call
+     * @param events The events, all of the same class, in call order
+     * @throws EventException If the event handler throws an exception.
+     */
+    public void executeBatch(Listener listener, List<? extends Event> events) throws EventException;
+}
@@ -0,0 +1,29 @@
+package org.bukkit.plugin;
+
+import java.lang.reflect.Method;
+
+import org.bukkit.event.Event;
+
+/**
+ * Creates the {@link EventExecutor}s used to call annotated event handler
+ * methods
+ */
+public interface EventExecutorFactory {
+
+    /**
+     * Creates an executor which calls the given handler method.
+     * <p>
+     * The returned executor must ignore any event which is not an instance of
+     * the given event class, and must wrap anything thrown by the handler in
+     * an {@link org.bukkit.event.EventException}.
+     *
+     * @param method The handler method, taking a single event parameter
+     * @param eventClass The event class the method handles
+     * @return An executor for the method, or null if this factory cannot bind
+     *     the method, in which case the plugin loader falls back to
+     *     reflection
+     * @throws RuntimeException if the method cannot be bound, which is
+     *     logged before falling back to reflection the same way
+     */
+    public EventExecutor create(Method method, Class<? extends Event> eventClass);
+}
@@ -0,0 +1,102 @@
+package org.bukkit.plugin;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+
+/**
+ * Extends RegisteredListener to record the latency of every call, of both
+ * synchronous and asynchronous events, in a {@link LatencyHistogram}
+ */
+public class HistogramRegisteredListener extends RegisteredListener {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    public HistogramRegisteredListener(final Listener pluginListener, final EventExecutor eventExecutor, final EventPriority eventPriority, final Plugin registeredPlugin, final boolean listenCancelled, final Class<? extends Event> eventType) {
+        super(pluginListener, eventExecutor, eventPriority, registeredPlugin, listenCancelled, eventType);
+    }
+
+    @Override
+    public void callEvent(Event event) throws EventException {
+        if (isSkipped(event)) {
+            super.callEvent(event);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            super.callEvent(event);
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void callEvents(List<? extends Event> events) throws EventException {
+        if (!isBatching()) {
+            super.callEvents(events);
+            return;
+        }
+        boolean skipped = true;
+        for (Event event : events) {
+            if (!isSkipped(event)) {
+                skipped = false;
+                break;
+            }
+        }
+        if (skipped) {
+            super.callEvents(events);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            super.callEvents(events);
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    // Cancelled events never reach the listener, so timing them would only
+    // drag the recorded latencies towards zero
+    private boolean isSkipped(Event event) {
+        return isIgnoringCancelled() && event instanceof Cancellable && ((Cancellable) event).isCancelled();
+    }
+
+    /**
+     * Gets the latencies recorded for this listener
+     *
+     * @return the histogram of this listener
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Gets the latencies of a plugin's listeners, merged per registered
+     * event type
+     *
+     * @param plugin the plugin to get the latencies of
+     * @return a new histogram per event type, in registration order
+     */
+    public static Map<Class<? extends Event>, LatencyHistogram> getHistograms(Plugin plugin) {
+        Map<Class<? extends Event>, LatencyHistogram> histograms = new LinkedHashMap<Class<? extends Event>, LatencyHistogram>();
+        for (RegisteredListener listener : HandlerList.getRegisteredListeners(plugin)) {
+            if (!(listener instanceof HistogramRegisteredListener)) {
+                continue;
+            }
+            Class<? extends Event> eventType = listener.getEventType() == null ? Event.class : listener.getEventType();
+            LatencyHistogram merged = histograms.get(eventType);
+            if (merged == null) {
+                merged = new LatencyHistogram();
+                histograms.put(eventType, merged);
+            }
+            merged.add(((HistogramRegisteredListener) listener).getHistogram());
+        }
+        return histograms;
+    }
+}
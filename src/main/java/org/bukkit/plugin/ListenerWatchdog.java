@@ -0,0 +1,315 @@
+package org.bukkit.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.event.Event;
+
+/**
+ * Watches listener calls for ones that exceed a time budget.
+ * <p>
+ * A monitor thread samples the stack of any listener call still running
+ * past the budget, showing where the listener is stuck. Every call which
+ * finishes over budget is kept in a ring buffer of the most recent slow
+ * calls, which can be queried per plugin. Each record counts how often that
+ * listener has been slow, so repeat offenders stand out.
+ *
+ * @see SimplePluginManager#setListenerWatchdog(ListenerWatchdog)
+ */
+public final class ListenerWatchdog {
+    private final Logger logger;
+    private final long budget;
+    private final SlowListenerCall[] slowCalls;
+    private final Map<Thread, ActiveCall> activeCalls = new ConcurrentHashMap<Thread, ActiveCall>();
+    private final Map<RegisteredListener, AtomicInteger> offences = new ConcurrentHashMap<RegisteredListener, AtomicInteger>();
+    private int nextSlowCall = 0;
+    private Thread monitor;
+
+    /**
+     * Creates a watchdog, which must be {@link #start() started} before use
+     *
+     * @param logger Logger to report slow listeners to
+     * @param budget Time a single listener call may take
+     * @param unit Unit of the budget
+     * @param capacity Number of slow calls to remember
+     */
+    public ListenerWatchdog(Logger logger, long budget, TimeUnit unit, int capacity) {
+        org.apache.commons.lang3.Validate.notNull(logger, "Logger cannot be null");
+        org.apache.commons.lang3.Validate.isTrue(budget > 0, "Budget must be positive");
+        org.apache.commons.lang3.Validate.isTrue(capacity > 0, "Capacity must be positive");
+
+        this.logger = logger;
+        this.budget = unit.toNanos(budget);
+        this.slowCalls = new SlowListenerCall[capacity];
+    }
+
+    /**
+     * Starts the monitor thread
+     */
+    public synchronized void start() {
+        if (monitor != null) {
+            return;
+        }
+        monitor = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "Bukkit Listener Watchdog");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    /**
+     * Stops the monitor thread. Slow calls are still recorded when they
+     * finish, but no stacks are sampled anymore.
+     */
+    public synchronized void stop() {
+        if (monitor != null) {
+            monitor.interrupt();
+            monitor = null;
+        }
+    }
+
+    /**
+     * Gets the time a single listener call may take
+     *
+     * @return the budget in nanoseconds
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Marks the start of a listener call on the current thread
+     *
+     * @param registration Listener being called
+     * @param event Event being passed
+     * @return the call, to pass to {@link #exit(Object)}
+     */
+    Object enter(RegisteredListener registration, Event event) {
+        Thread thread = Thread.currentThread();
+        ActiveCall active = new ActiveCall(registration, event, System.nanoTime(), activeCalls.get(thread));
+        activeCalls.put(thread, active);
+        return active;
+    }
+
+    /**
+     * Marks the end of a listener call on the current thread, recording it
+     * if it exceeded the budget
+     *
+     * @param call the call returned by {@link #enter(RegisteredListener,
+     *     Event)}
+     */
+    void exit(Object call) {
+        ActiveCall active = (ActiveCall) call;
+        if (active.previous != null) {
+            activeCalls.put(Thread.currentThread(), active.previous);
+        } else {
+            activeCalls.remove(Thread.currentThread());
+        }
+
+        long duration = System.nanoTime() - active.start;
+        if (duration > budget) {
+            record(active, duration);
+        }
+    }
+
+    /**
+     * Gets the slow calls of a plugin's listeners still held in the ring
+     * buffer, oldest first
+     *
+     * @param plugin Plugin to query
+     * @return the slow calls of the plugin
+     */
+    public List<SlowListenerCall> getSlowCalls(Plugin plugin) {
+        List<SlowListenerCall> result = new ArrayList<SlowListenerCall>();
+        synchronized (slowCalls) {
+            for (int i = 0; i < slowCalls.length; i++) {
+                SlowListenerCall call = slowCalls[(nextSlowCall + i) % slowCalls.length];
+                if (call != null && call.getPlugin().equals(plugin)) {
+                    result.add(call);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets all recorded slow calls
+     */
+    public void clear() {
+        synchronized (slowCalls) {
+            for (int i = 0; i < slowCalls.length; i++) {
+                slowCalls[i] = null;
+            }
+            nextSlowCall = 0;
+        }
+        offences.clear();
+    }
+
+    /**
+     * Forgets the recorded slow calls of a plugin's listeners, so a disabled
+     * plugin is not kept alive by them
+     *
+     * @param plugin Plugin to forget
+     */
+    public void clear(Plugin plugin) {
+        synchronized (slowCalls) {
+            for (int i = 0; i < slowCalls.length; i++) {
+                if (slowCalls[i] != null && slowCalls[i].getPlugin().equals(plugin)) {
+                    slowCalls[i] = null;
+                }
+            }
+        }
+        for (RegisteredListener registration : offences.keySet()) {
+            if (registration.getPlugin().equals(plugin)) {
+                offences.remove(registration);
+            }
+        }
+    }
+
+    private void record(ActiveCall active, long duration) {
+        RegisteredListener registration = active.registration;
+        AtomicInteger count = offences.get(registration);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = offences.putIfAbsent(registration, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+
+        SlowListenerCall call = new SlowListenerCall(registration, active.eventClass, duration, active.stack, count.incrementAndGet());
+        synchronized (slowCalls) {
+            slowCalls[nextSlowCall] = call;
+            nextSlowCall = (nextSlowCall + 1) % slowCalls.length;
+        }
+
+        // Log the first offence and then every power of two, to keep repeat offenders from flooding the log
+        if (Integer.bitCount(call.getOccurrence()) == 1) {
+            logger.log(Level.WARNING, String.format(
+                    "%s took %dms to handle %s in %s (slow %d time(s))",
+                    registration.getPlugin().getDescription().getFullName(),
+                    TimeUnit.NANOSECONDS.toMillis(duration),
+                    active.eventClass.getSimpleName(),
+                    registration.getListener().getClass().getName(),
+                    call.getOccurrence()));
+        }
+    }
+
+    private void watch() {
+        long interval = Math.max(TimeUnit.MILLISECONDS.toNanos(1), budget / 2);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(interval);
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            for (Map.Entry<Thread, ActiveCall> entry : activeCalls.entrySet()) {
+                ActiveCall active = entry.getValue();
+                if (active.stack == null && now - active.start > budget) {
+                    active.stack = entry.getKey().getStackTrace();
+                }
+            }
+        }
+    }
+
+    private static final class ActiveCall {
+        final RegisteredListener registration;
+        final Class<? extends Event> eventClass;
+        final long start;
+        final ActiveCall previous;
+        volatile StackTraceElement[] stack;
+
+        ActiveCall(final RegisteredListener registration, final Event event, final long start, final ActiveCall previous) {
+            this.registration = registration;
+            this.eventClass = event.getClass();
+            this.start = start;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * A listener call which exceeded the budget of a {@link ListenerWatchdog}
+     */
+    public static final class SlowListenerCall {
+        private final RegisteredListener registration;
+        private final Class<? extends Event> eventClass;
+        private final long duration;
+        private final StackTraceElement[] stack;
+        private final int occurrence;
+
+        SlowListenerCall(final RegisteredListener registration, final Class<? extends Event> eventClass, final long duration, final StackTraceElement[] stack, final int occurrence) {
+            this.registration = registration;
+            this.eventClass = eventClass;
+            this.duration = duration;
+            this.stack = stack;
+            this.occurrence = occurrence;
+        }
+
+        /**
+         * Gets the plugin owning the slow listener
+         *
+         * @return the plugin
+         */
+        public Plugin getPlugin() {
+            return registration.getPlugin();
+        }
+
+        /**
+         * Gets the slow listener
+         *
+         * @return the registered listener
+         */
+        public RegisteredListener getListener() {
+            return registration;
+        }
+
+        /**
+         * Gets the class of the event being handled
+         *
+         * @return the event class
+         */
+        public Class<? extends Event> getEventClass() {
+            return eventClass;
+        }
+
+        /**
+         * Gets how long the call took
+         *
+         * @return the duration in nanoseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Gets the stack of the calling thread, sampled while the call was
+         * over budget
+         *
+         * @return the sampled stack, or null if the monitor thread did not
+         *     sample the call before it finished
+         */
+        public StackTraceElement[] getStackTrace() {
+            return stack == null ? null : stack.clone();
+        }
+
+        /**
+         * Gets how many times this listener has exceeded the budget,
+         * including this call
+         *
+         * @return the number of slow calls of the listener so far
+         */
+        public int getOccurrence() {
+            return occurrence;
+        }
+    }
+}
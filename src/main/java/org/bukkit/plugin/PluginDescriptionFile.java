@@ -1,10 +1,16 @@
 package org.bukkit.plugin;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -211,6 +217,16 @@ public final class PluginDescriptionFile {
             });
         }
     };
+    private static final int BINARY_VERSION = 1;
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int BOOLEAN = 2;
+    private static final int INTEGER = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 5;
+    private static final int LIST = 6;
+    private static final int MAP = 7;
+    private static final int AWARENESS = 8;
     String rawName = null;
     private String name = null;
     private String main = null;
@@ -246,6 +262,10 @@ public final class PluginDescriptionFile {
         loadMap(asMap(YAML.get().load(reader)));
     }
 
+    private PluginDescriptionFile(final Map<?, ?> map) throws InvalidDescriptionException {
+        loadMap(map);
+    }
+
     /**
      * Creates a new PluginDescriptionFile with the given detailed
      *
@@ -785,8 +805,8 @@ public final class PluginDescriptionFile {
             if (lazyPermissions == null) {
                 permissions = ImmutableList.<Permission>of();
             } else {
+                // The unparsed permissions are kept for write(DataOutput)
                 permissions = ImmutableList.copyOf(Permission.loadPermissions(lazyPermissions, "Permission node '%s' in plugin description file for " + getFullName() + " is invalid", defaultPerm));
-                lazyPermissions = null;
             }
         }
         return permissions;
@@ -884,6 +904,163 @@ public final class PluginDescriptionFile {
         YAML.get().dump(saveMap(), writer);
     }
 
+    /**
+     * Writes this PluginDescriptionFile in a compact binary form, which can be
+     * read back with {@link #read(DataInput)} without parsing any yaml
+     *
+     * @param out Output to write this description to
+     * @throws IOException If the output cannot be written, or if the
+     *     description holds values which have no binary form
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(BINARY_VERSION);
+        writeValue(out, loadedMap());
+    }
+
+    /**
+     * Reads a PluginDescriptionFile written by {@link #write(DataOutput)}
+     *
+     * @param in Input to read the description from
+     * @return The description
+     * @throws IOException If the input cannot be read or is not a written
+     *     description
+     * @throws InvalidDescriptionException If the written description is
+     *     invalid
+     */
+    public static PluginDescriptionFile read(DataInput in) throws IOException, InvalidDescriptionException {
+        int version = in.readUnsignedByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unknown description version " + version);
+        }
+        Object map = readValue(in);
+        if (!(map instanceof Map)) {
+            throw new IOException("Description is not a map");
+        }
+        return new PluginDescriptionFile((Map<?, ?>) map);
+    }
+
+    /**
+     * Gets the map this description was loaded from, as it would be read from
+     * a plugin.yml
+     */
+    private Map<String, Object> loadedMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+        map.put("name", rawName != null ? rawName : name);
+        map.put("version", version);
+        map.put("main", main);
+        map.put("commands", commands);
+        map.put("class-loader-of", classLoaderOf);
+        map.put("depend", depend);
+        map.put("softdepend", softDepend);
+        map.put("loadbefore", loadBefore);
+        map.put("database", database);
+        map.put("website", website);
+        map.put("description", description);
+        map.put("load", order.name());
+        map.put("authors", authors);
+        map.put("default-permission", defaultPerm.toString());
+        map.put("awareness", new ArrayList<PluginAwareness>(awareness));
+        map.put("permissions", lazyPermissions);
+        map.put("prefix", prefix);
+
+        return map;
+    }
+
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof PluginAwareness.Flags) {
+            out.writeByte(AWARENESS);
+            writeString(out, ((PluginAwareness.Flags) value).name());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IOException("Cannot write " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+        case NULL:
+            return null;
+        case STRING:
+            return readString(in);
+        case BOOLEAN:
+            return in.readBoolean();
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case AWARENESS:
+            try {
+                return PluginAwareness.Flags.valueOf(readString(in));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException(ex);
+            }
+        case LIST:
+            int length = in.readInt();
+            List<Object> list = new ArrayList<Object>(length);
+            for (int i = 0; i < length; i++) {
+                list.add(readValue(in));
+            }
+            return list;
+        case MAP:
+            int size = in.readInt();
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+            for (int i = 0; i < size; i++) {
+                Object key = readValue(in);
+                map.put(key, readValue(in));
+            }
+            return map;
+        default:
+            throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
     private void loadMap(Map<?, ?> map) throws InvalidDescriptionException {
         try {
             name = rawName = map.get("name").toString();
@@ -1,10 +1,14 @@
 package org.bukkit.plugin;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.permissions.Permissible;
 import org.bukkit.permissions.Permission;
@@ -92,6 +96,23 @@ public interface PluginManager {
      */
     public void clearPlugins();
 
+    /**
+     * Reloads a single plugin from its file, together with every plugin
+     * which depends on it, without touching any other plugin.
+     * <p>
+     * The plugins are disabled, and their listeners, plugin channels,
+     * services, permissions and commands are unregistered. They are then
+     * loaded again in fresh class loaders, and are enabled once all of them
+     * have loaded.
+     *
+     * @param plugin Plugin to reload
+     * @return The reloaded plugins, in load order. Plugins which could not be
+     *     loaded again are left out.
+     * @throws IllegalArgumentException if the plugin is not loaded by this
+     *     plugin manager
+     */
+    public Plugin[] reloadPlugin(Plugin plugin);
+
     /**
      * Calls an event with the given details
      *
@@ -104,6 +125,66 @@ public interface PluginManager {
      */
     public void callEvent(Event event) throws IllegalStateException;
 
+    /**
+     * Calls an event created by the given supplier, only creating it when at
+     * least one enabled plugin listens to the given handler list
+     * <p>
+     * This lets hot code paths avoid allocating events nobody would see.
+     *
+     * @param <T> Type of the event
+     * @param handlers Handler list of the event that would be created
+     * @param eventSupplier Creates the event details
+     * @return The called event, or null if there were no enabled listeners
+     *     and the event was never created
+     * @throws IllegalStateException Thrown when an asynchronous event is
+     *     fired from synchronous code.
+     * @see #callEvent(Event)
+     */
+    public default <T extends Event> T callEvent(HandlerList handlers, Supplier<? extends T> eventSupplier) throws IllegalStateException {
+        // Implementations which can tell enabled listeners apart should override this
+        if (!handlers.hasListeners()) {
+            return null;
+        }
+
+        T event = eventSupplier.get();
+        callEvent(event);
+        return event;
+    }
+
+    /**
+     * Calls a batch of events, such as the block changes of one explosion
+     * <p>
+     * Consecutive events of the same class are dispatched together: each
+     * listener receives every event of the group before the next listener
+     * is called, and listeners registered with {@link
+     * org.bukkit.event.EventHandler#batch() batch = true} receive the group
+     * in one call. The events must either all be synchronous or all be
+     * asynchronous.
+     *
+     * @param events Events to call, in order
+     * @throws IllegalStateException Thrown when asynchronous events are
+     *     fired from synchronous code.
+     * @throws IllegalArgumentException Thrown when synchronous and
+     *     asynchronous events are mixed.
+     */
+    public void callEvents(Collection<? extends Event> events) throws IllegalStateException, IllegalArgumentException;
+
+    /**
+     * Calls an asynchronous event without blocking the calling thread
+     * <p>
+     * Listeners are called in priority order on a separate thread.
+     * {@link org.bukkit.event.EventPriority#MONITOR MONITOR} listeners may
+     * be called in parallel with each other.
+     *
+     * @param <E> Type of the event
+     * @param event Event details, which must be asynchronous
+     * @return A future completed with the event once all listeners,
+     *     including MONITOR, have been called
+     * @throws IllegalArgumentException Thrown when the event is not
+     *     asynchronous
+     */
+    public <E extends Event> CompletableFuture<E> callEventAsync(E event) throws IllegalArgumentException;
+
     /**
      * Registers all the events in the given listener class
      *
@@ -291,4 +372,15 @@ public interface PluginManager {
      * @return True if event timings are to be used
      */
     public boolean useTimings();
+
+    /**
+     * Returns whether event calls should record their latency in histograms,
+     * for synchronous and asynchronous events alike
+     *
+     * @return True if latency histograms are to be used, false by default
+     * @see HistogramRegisteredListener
+     */
+    public default boolean useTimingHistograms() {
+        return false;
+    }
 }
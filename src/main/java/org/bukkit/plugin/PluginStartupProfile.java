@@ -0,0 +1,330 @@
+package org.bukkit.plugin;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records where the startup time of one plugin went, from reading its
+ * description to enabling it.
+ * <p>
+ * The plugin manager and the plugin loader record every step they perform.
+ * {@link Plugin#onLoad()} is called by the server implementation, which
+ * records it with {@link #addLoadTime(long)}, except when a plugin is
+ * reloaded. Profiles are kept by plugin name until {@link #reset()}, and
+ * all times are in nanoseconds.
+ * <p>
+ * Once startup is over, profiles are frozen and ignore anything recorded
+ * later, such as listeners registered at runtime. Reloading a plugin starts
+ * a new profile for it.
+ */
+public final class PluginStartupProfile {
+    private static final ConcurrentHashMap<String, PluginStartupProfile> profiles = new ConcurrentHashMap<String, PluginStartupProfile>();
+
+    private final String name;
+    private final AtomicLong descriptionTime = new AtomicLong();
+    private final AtomicLong classLoaderTime = new AtomicLong();
+    private final AtomicLong loadTime = new AtomicLong();
+    private final AtomicLong enableTime = new AtomicLong();
+    private final AtomicLong classes = new AtomicLong();
+    private final AtomicLong listeners = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+    private volatile boolean enableAttempted;
+    private volatile boolean frozen;
+
+    private PluginStartupProfile(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the profile of a plugin, creating it if needed
+     *
+     * @param name the name of the plugin
+     * @return the profile of the plugin
+     */
+    public static PluginStartupProfile getProfile(String name) {
+        org.apache.commons.lang3.Validate.notNull(name, "Name cannot be null");
+
+        PluginStartupProfile profile = profiles.get(name);
+        if (profile == null) {
+            profile = new PluginStartupProfile(name);
+            PluginStartupProfile existing = profiles.putIfAbsent(name, profile);
+            if (existing != null) {
+                profile = existing;
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Gets the profiles of all plugins, slowest first
+     *
+     * @return the profiles, sorted by descending total time
+     */
+    public static List<PluginStartupProfile> getProfiles() {
+        List<PluginStartupProfile> result = new ArrayList<PluginStartupProfile>(profiles.values());
+        Collections.sort(result, new Comparator<PluginStartupProfile>() {
+            public int compare(PluginStartupProfile a, PluginStartupProfile b) {
+                int order = Long.compare(b.getTotalTime(), a.getTotalTime());
+                return order != 0 ? order : a.name.compareTo(b.name);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Discards the profiles of all plugins
+     */
+    public static void reset() {
+        profiles.clear();
+    }
+
+    /**
+     * Discards the profile of one plugin, so a new one is started the next
+     * time it is recorded
+     *
+     * @param name the name of the plugin
+     */
+    public static void reset(String name) {
+        org.apache.commons.lang3.Validate.notNull(name, "Name cannot be null");
+
+        profiles.remove(name);
+    }
+
+    /**
+     * Freezes the profiles of all plugins
+     */
+    static void freezeAll() {
+        for (PluginStartupProfile profile : profiles.values()) {
+            profile.freeze();
+        }
+    }
+
+    /**
+     * Writes the profiles of all plugins, slowest first, one per line. The
+     * time spent in {@link Plugin#onLoad()} is only shown if the server
+     * recorded it for any plugin.
+     *
+     * @param out the stream to write to
+     */
+    public static void writeReport(PrintStream out) {
+        List<PluginStartupProfile> profiles = getProfiles();
+        boolean loadTimes = false;
+        for (PluginStartupProfile profile : profiles) {
+            if (profile.getLoadTime() != 0) {
+                loadTimes = true;
+                break;
+            }
+        }
+
+        out.println(String.format("%-32s %10s %10s %10s ", "Plugin", "Total ms", "Desc ms", "Loader ms")
+                + (loadTimes ? String.format("%10s ", "Load ms") : "")
+                + String.format("%10s %8s %9s %8s", "Enable ms", "Classes", "Listeners", "Commands"));
+        for (PluginStartupProfile profile : profiles) {
+            out.println(String.format("%-32s %10.2f %10.2f %10.2f ",
+                    profile.name,
+                    profile.getTotalTime() / 1e6,
+                    profile.getDescriptionTime() / 1e6,
+                    profile.getClassLoaderTime() / 1e6)
+                    + (loadTimes ? String.format("%10.2f ", profile.getLoadTime() / 1e6) : "")
+                    + String.format("%10.2f %8d %9d %8d",
+                    profile.getEnableTime() / 1e6,
+                    profile.getClassesLoaded(),
+                    profile.getListenersRegistered(),
+                    profile.getCommandsRegistered()));
+        }
+    }
+
+    /**
+     * Gets the name of the profiled plugin
+     *
+     * @return the plugin name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the total time spent in all recorded steps
+     *
+     * @return the total time
+     */
+    public long getTotalTime() {
+        return getDescriptionTime() + getClassLoaderTime() + getLoadTime() + getEnableTime();
+    }
+
+    /**
+     * Gets the time spent reading the plugin description
+     *
+     * @return the description time
+     */
+    public long getDescriptionTime() {
+        return descriptionTime.get();
+    }
+
+    /**
+     * Gets the time spent constructing the class loader, which includes
+     * loading and constructing the main class
+     *
+     * @return the class loader time
+     */
+    public long getClassLoaderTime() {
+        return classLoaderTime.get();
+    }
+
+    /**
+     * Gets the time spent in {@link Plugin#onLoad()}
+     *
+     * @return the load time
+     */
+    public long getLoadTime() {
+        return loadTime.get();
+    }
+
+    /**
+     * Gets the time spent enabling the plugin, including {@link
+     * Plugin#onEnable()}
+     *
+     * @return the enable time
+     */
+    public long getEnableTime() {
+        return enableTime.get();
+    }
+
+    /**
+     * Gets the number of classes the plugin's class loader defined
+     *
+     * @return the number of classes loaded
+     */
+    public long getClassesLoaded() {
+        return classes.get();
+    }
+
+    /**
+     * Gets the number of event handlers the plugin registered
+     *
+     * @return the number of listeners registered
+     */
+    public long getListenersRegistered() {
+        return listeners.get();
+    }
+
+    /**
+     * Gets the number of commands registered for the plugin
+     *
+     * @return the number of commands registered
+     */
+    public long getCommandsRegistered() {
+        return commands.get();
+    }
+
+    /**
+     * Checks if this profile stopped recording, as the startup of the
+     * plugin is over
+     *
+     * @return true if the profile is frozen
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Adds to the time spent reading the plugin description, unless the
+     * profile is frozen
+     *
+     * @param time the time to add, in nanoseconds
+     */
+    public void addDescriptionTime(long time) {
+        if (!frozen) {
+            descriptionTime.addAndGet(time);
+        }
+    }
+
+    /**
+     * Adds to the time spent constructing the class loader and the main
+     * class, unless the profile is frozen
+     *
+     * @param time the time to add, in nanoseconds
+     */
+    public void addClassLoaderTime(long time) {
+        if (!frozen) {
+            classLoaderTime.addAndGet(time);
+        }
+    }
+
+    /**
+     * Adds to the time spent in {@link Plugin#onLoad()}, unless the profile
+     * is frozen
+     *
+     * @param time the time to add, in nanoseconds
+     */
+    public void addLoadTime(long time) {
+        if (!frozen) {
+            loadTime.addAndGet(time);
+        }
+    }
+
+    /**
+     * Adds to the time spent enabling the plugin, unless the profile is
+     * frozen
+     *
+     * @param time the time to add, in nanoseconds
+     */
+    public void addEnableTime(long time) {
+        if (!frozen) {
+            enableTime.addAndGet(time);
+        }
+    }
+
+    /**
+     * Adds to the number of classes the plugin's class loader defined, unless
+     * the profile is frozen
+     *
+     * @param count the number to add
+     */
+    public void addClassesLoaded(int count) {
+        if (!frozen) {
+            classes.addAndGet(count);
+        }
+    }
+
+    /**
+     * Adds to the number of event handlers the plugin registered, unless the
+     * profile is frozen
+     *
+     * @param count the number to add
+     */
+    public void addListenersRegistered(int count) {
+        if (!frozen) {
+            listeners.addAndGet(count);
+        }
+    }
+
+    /**
+     * Adds to the number of commands registered for the plugin, unless the
+     * profile is frozen
+     *
+     * @param count the number to add
+     */
+    public void addCommandsRegistered(int count) {
+        if (!frozen) {
+            commands.addAndGet(count);
+        }
+    }
+
+    void freeze() {
+        frozen = true;
+    }
+
+    void setEnableAttempted() {
+        enableAttempted = true;
+    }
+
+    boolean isEnableAttempted() {
+        return enableAttempted;
+    }
+}
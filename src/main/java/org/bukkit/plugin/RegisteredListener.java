@@ -1,5 +1,8 @@
 package org.bukkit.plugin;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bukkit.event.*;
 
 /**
@@ -11,13 +14,19 @@ public class RegisteredListener {
     private final Plugin plugin;
     private final EventExecutor executor;
     private final boolean ignoreCancelled;
+    private final Class<? extends Event> eventType;
 
     public RegisteredListener(final Listener listener, final EventExecutor executor, final EventPriority priority, final Plugin plugin, final boolean ignoreCancelled) {
+        this(listener, executor, priority, plugin, ignoreCancelled, null);
+    }
+
+    public RegisteredListener(final Listener listener, final EventExecutor executor, final EventPriority priority, final Plugin plugin, final boolean ignoreCancelled, final Class<? extends Event> eventType) {
         this.listener = listener;
         this.priority = priority;
         this.plugin = plugin;
         this.executor = executor;
         this.ignoreCancelled = ignoreCancelled;
+        this.eventType = eventType;
     }
 
     /**
@@ -47,6 +56,17 @@ public class RegisteredListener {
         return priority;
     }
 
+    /**
+     * Gets the event type this listener was registered for. Events which are
+     * not instances of this type are never passed to it.
+     *
+     * @return Registered event type, or null if it accepts any event of its
+     *     handler list
+     */
+    public Class<? extends Event> getEventType() {
+        return eventType;
+    }
+
     /**
      * Calls the event executor
      *
@@ -54,14 +74,55 @@ public class RegisteredListener {
      * @throws EventException If an event handler throws an exception.
      */
     public void callEvent(final Event event) throws EventException {
-        if (event instanceof Cancellable){
-            if (((Cancellable) event).isCancelled() && isIgnoringCancelled()){
+        if (ignoreCancelled && event instanceof Cancellable){
+            if (((Cancellable) event).isCancelled()){
                 return;
             }
         }
         executor.execute(listener, event);
     }
 
+    /**
+     * Calls the event executor with a batch of events of the same class.
+     * <p>
+     * Batch executors receive all events in one call, other executors are
+     * called once per event.
+     *
+     * @param events The events, in call order
+     * @throws EventException If an event handler throws an exception.
+     */
+    public void callEvents(final List<? extends Event> events) throws EventException {
+        if (!isBatching()) {
+            for (Event event : events) {
+                callEvent(event);
+            }
+            return;
+        }
+
+        List<? extends Event> accepted = events;
+        if (ignoreCancelled) {
+            List<Event> notCancelled = new ArrayList<Event>(events.size());
+            for (Event event : events) {
+                if (!(event instanceof Cancellable) || !((Cancellable) event).isCancelled()) {
+                    notCancelled.add(event);
+                }
+            }
+            accepted = notCancelled;
+        }
+        if (!accepted.isEmpty()) {
+            ((BatchEventExecutor) executor).executeBatch(listener, accepted);
+        }
+    }
+
+    /**
+     * Whether this listener receives batches of events in one call
+     *
+     * @return True when the executor is a {@link BatchEventExecutor}
+     */
+    public boolean isBatching() {
+        return executor instanceof BatchEventExecutor;
+    }
+
      /**
      * Whether this listener accepts cancelled events
      *
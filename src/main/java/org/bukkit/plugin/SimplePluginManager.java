@@ -1,28 +1,53 @@
 package org.bukkit.plugin;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.Validate;
 import org.bukkit.Server;
 import org.bukkit.command.Command;
 import org.bukkit.command.PluginCommandYamlParser;
 import org.bukkit.command.SimpleCommandMap;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.DispatchPlan;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
@@ -30,7 +55,7 @@ import org.bukkit.event.Listener;
 import org.bukkit.permissions.Permissible;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionDefault;
-import org.bukkit.util.FileUtil;
+import org.bukkit.plugin.java.JavaPluginLoader;
 
 import com.google.common.collect.ImmutableSet;
 
@@ -42,13 +67,36 @@ public final class SimplePluginManager implements PluginManager {
     private final Map<Pattern, PluginLoader> fileAssociations = new HashMap<Pattern, PluginLoader>();
     private final List<Plugin> plugins = new ArrayList<Plugin>();
     private final Map<String, Plugin> lookupNames = new HashMap<String, Plugin>();
+    private final Map<String, File> pluginFiles = new HashMap<String, File>();
     private static File updateDirectory = null;
     private final SimpleCommandMap commandMap;
     private final Map<String, Permission> permissions = new HashMap<String, Permission>();
+    /**
+     * Class loaders of the plugins which registered permissions themselves,
+     * by permission name
+     */
+    private final Map<String, ClassLoader> permissionOwners = new ConcurrentHashMap<String, ClassLoader>();
     private final Map<Boolean, Set<Permission>> defaultPerms = new LinkedHashMap<Boolean, Set<Permission>>();
     private final Map<String, Map<Permissible, Boolean>> permSubs = new HashMap<String, Map<Permissible, Boolean>>();
     private final Map<Boolean, Map<Permissible, Boolean>> defSubs = new HashMap<Boolean, Map<Permissible, Boolean>>();
     private boolean useTimings = false;
+    private boolean useTimingHistograms = false;
+    private boolean startupReported = false;
+    private volatile boolean lockFreeDispatch = false;
+    private final AsyncEventDispatcher asyncDispatcher = new AsyncEventDispatcher(this);
+    private volatile ListenerWatchdog watchdog = null;
+
+    /**
+     * HandlerList of each event class, looked up once per class instead of
+     * reflectively on every registration
+     */
+    private static final StackWalker stackWalker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    private static final ClassValue<HandlerList> handlerLists = new ClassValue<HandlerList>() {
+        @Override
+        protected HandlerList computeValue(Class<?> type) {
+            return findEventListeners(type.asSubclass(Event.class));
+        }
+    };
 
     public SimplePluginManager(Server instance, SimpleCommandMap commandMap) {
         server = instance;
@@ -112,11 +160,12 @@ public final class SimplePluginManager implements PluginManager {
         }
 
         Map<String, File> plugins = new HashMap<String, File>();
-        Set<String> loadedPlugins = new HashSet<String>();
         Map<String, Collection<String>> dependencies = new HashMap<String, Collection<String>>();
         Map<String, Collection<String>> softDependencies = new HashMap<String, Collection<String>>();
 
         // This is where it figures out all possible plugins
+        List<File> files = new ArrayList<File>();
+        List<PluginLoader> fileLoaders = new ArrayList<PluginLoader>();
         for (File file : directory.listFiles()) {
             PluginLoader loader = null;
             for (Pattern filter : filters) {
@@ -128,9 +177,18 @@ public final class SimplePluginManager implements PluginManager {
 
             if (loader == null) continue;
 
+            files.add(file);
+            fileLoaders.add(loader);
+        }
+
+        // Descriptions are read in parallel, but handled in directory order
+        List<Future<PluginDescriptionFile>> descriptions = readDescriptions(files, fileLoaders);
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+
             PluginDescriptionFile description = null;
             try {
-                description = loader.getPluginDescription(file);
+                description = getDescription(descriptions.get(i));
                 String name = description.getName();
                 if (name.equalsIgnoreCase("bukkit") || name.equalsIgnoreCase("minecraft") || name.equalsIgnoreCase("mojang")) {
                     server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': Restricted Name");
@@ -188,114 +246,320 @@ public final class SimplePluginManager implements PluginManager {
             }
         }
 
-        while (!plugins.isEmpty()) {
-            boolean missingDependency = true;
-            Iterator<String> pluginIterator = plugins.keySet().iterator();
-
-            while (pluginIterator.hasNext()) {
-                String plugin = pluginIterator.next();
+        new PluginGraph(directory, plugins, dependencies, softDependencies).load(result);
+        flushLoaders();
 
-                if (dependencies.containsKey(plugin)) {
-                    Iterator<String> dependencyIterator = dependencies.get(plugin).iterator();
-
-                    while (dependencyIterator.hasNext()) {
-                        String dependency = dependencyIterator.next();
+        return result.toArray(new Plugin[result.size()]);
+    }
 
-                        // Dependency loaded
-                        if (loadedPlugins.contains(dependency)) {
-                            dependencyIterator.remove();
+    /**
+     * Lets the plugin loaders write anything they cache about the plugins
+     * just loaded, such as indexes of their files
+     */
+    private void flushLoaders() {
+        Set<PluginLoader> loaders;
+        synchronized (this) {
+            loaders = new LinkedHashSet<PluginLoader>(fileAssociations.values());
+        }
+        for (PluginLoader loader : loaders) {
+            if (loader instanceof Flushable) {
+                try {
+                    ((Flushable) loader).flush();
+                } catch (IOException ex) {
+                    server.getLogger().log(Level.WARNING, "Could not save the caches of " + loader.getClass().getName(), ex);
+                }
+            }
+        }
+    }
 
-                        // We have a dependency not found
-                        } else if (!plugins.containsKey(dependency)) {
-                            missingDependency = false;
-                            File file = plugins.get(plugin);
-                            pluginIterator.remove();
-                            softDependencies.remove(plugin);
-                            dependencies.remove(plugin);
+    /**
+     * Loads the plugins found by {@link #loadPlugins(File)} on the calling
+     * thread, in the order they have always been loaded in: passes over the
+     * plugins load every plugin whose dependencies have loaded and whose soft
+     * dependencies are gone, and when a pass loads nothing, the first plugin
+     * without pending dependencies is loaded, ignoring its soft dependencies.
+     * <p>
+     * Rather than rescanning every plugin on each pass, the graph counts the
+     * pending dependencies of each plugin and visits a plugin only once it
+     * can be loaded or has lost a dependency, at the point a pass would have
+     * reached it.
+     */
+    private final class PluginGraph {
+        private final File directory;
+        private final List<String> names;
+        private final List<File> files;
+        private final List<Collection<String>> dependencies = new ArrayList<Collection<String>>();
+        private final List<List<Integer>> hardDependents = new ArrayList<List<Integer>>();
+        private final List<List<Integer>> softDependents = new ArrayList<List<Integer>>();
+        private final Map<String, Integer> positions = new HashMap<String, Integer>();
+        private final Set<String> loadedPlugins = new HashSet<String>();
+        private final int[] pendingDependencies;
+        private final int[] pendingSoftDependencies;
+        private final boolean[] missingDependency;
+        private final boolean[] scheduled;
+        private final boolean[] removed;
+        private final PriorityQueue<Integer> pass = new PriorityQueue<Integer>();
+        private final List<Integer> nextPass = new ArrayList<Integer>();
+        private final TreeSet<Integer> withoutDependencies = new TreeSet<Integer>();
+        private int remaining;
+        private int position = -1;
+
+        PluginGraph(final File directory, final Map<String, File> plugins, final Map<String, Collection<String>> dependencies, final Map<String, Collection<String>> softDependencies) {
+            this.directory = directory;
+            this.names = new ArrayList<String>(plugins.keySet());
+            this.files = new ArrayList<File>(plugins.values());
+
+            int size = names.size();
+            remaining = size;
+            pendingDependencies = new int[size];
+            pendingSoftDependencies = new int[size];
+            missingDependency = new boolean[size];
+            scheduled = new boolean[size];
+            removed = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                positions.put(names.get(i), i);
+                hardDependents.add(new ArrayList<Integer>());
+                softDependents.add(new ArrayList<Integer>());
+            }
 
-                            server.getLogger().log(
-                                Level.SEVERE,
-                                "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'",
-                                new UnknownDependencyException(dependency));
-                            break;
-                        }
+            for (int i = 0; i < size; i++) {
+                Collection<String> hard = dependencies.get(names.get(i));
+                this.dependencies.add(hard == null ? new ArrayList<String>() : hard);
+                for (String dependency : copy(hard)) {
+                    Integer target = positions.get(dependency);
+                    if (target == null) {
+                        missingDependency[i] = true;
+                    } else {
+                        hardDependents.get(target).add(i);
+                        pendingDependencies[i]++;
                     }
-
-                    if (dependencies.containsKey(plugin) && dependencies.get(plugin).isEmpty()) {
-                        dependencies.remove(plugin);
+                }
+                for (String softDependency : copy(softDependencies.get(names.get(i)))) {
+                    Integer target = positions.get(softDependency);
+                    if (target != null) {
+                        softDependents.get(target).add(i);
+                        pendingSoftDependencies[i]++;
                     }
                 }
-                if (softDependencies.containsKey(plugin)) {
-                    Iterator<String> softDependencyIterator = softDependencies.get(plugin).iterator();
+                if (pendingDependencies[i] == 0) {
+                    withoutDependencies.add(i);
+                }
+                update(i);
+            }
+        }
 
-                    while (softDependencyIterator.hasNext()) {
-                        String softDependency = softDependencyIterator.next();
+        private Set<String> copy(Collection<String> names) {
+            return (names == null) ? new HashSet<String>() : new HashSet<String>(names);
+        }
 
-                        // Soft depend is no longer around
-                        if (!plugins.containsKey(softDependency)) {
-                            softDependencyIterator.remove();
-                        }
+        void load(List<Plugin> result) {
+            while (remaining > 0) {
+                boolean changed = false;
+                pass.addAll(nextPass);
+                nextPass.clear();
+                while (!pass.isEmpty()) {
+                    position = pass.poll();
+                    if (removed[position]) {
+                        // Loaded without its soft dependencies meanwhile
+                        continue;
+                    }
+                    changed = true;
+                    if (missingDependency[position]) {
+                        server.getLogger().log(
+                            Level.SEVERE,
+                            "Could not load '" + files.get(position).getPath() + "' in folder '" + directory.getPath() + "'",
+                            new UnknownDependencyException(getMissingDependency(position)));
+                        remove(position, false);
+                    } else {
+                        register(position, result);
                     }
+                }
+                // Anything ready from here on waits for the next pass
+                position = names.size();
+                if (changed) {
+                    continue;
+                }
 
-                    if (softDependencies.get(plugin).isEmpty()) {
-                        softDependencies.remove(plugin);
+                // We now go over plugins until something loads
+                // This ignores soft dependencies
+                if (!withoutDependencies.isEmpty()) {
+                    while (!withoutDependencies.isEmpty()) {
+                        if (register(withoutDependencies.first(), result)) {
+                            break;
+                        }
                     }
+                    continue;
                 }
-                if (!(dependencies.containsKey(plugin) || softDependencies.containsKey(plugin)) && plugins.containsKey(plugin)) {
-                    // We're clear to load, no more soft or hard dependencies left
-                    File file = plugins.get(plugin);
-                    pluginIterator.remove();
-                    missingDependency = false;
-
-                    try {
-                        result.add(loadPlugin(file));
-                        loadedPlugins.add(plugin);
-                        continue;
-                    } catch (InvalidPluginException ex) {
-                        server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'", ex);
+
+                // We have no plugins left without a depend
+                for (int i = 0; i < names.size(); i++) {
+                    if (!removed[i]) {
+                        remove(i, false);
+                        server.getLogger().log(Level.SEVERE, "Could not load '" + files.get(i).getPath() + "' in folder '" + directory.getPath() + "': circular dependency detected");
                     }
                 }
             }
+        }
 
-            if (missingDependency) {
-                // We now iterate over plugins until something loads
-                // This loop will ignore soft dependencies
-                pluginIterator = plugins.keySet().iterator();
+        /**
+         * Gets the first dependency of a plugin which neither loaded nor is
+         * still waiting to load.
+         */
+        private String getMissingDependency(int plugin) {
+            for (String dependency : dependencies.get(plugin)) {
+                Integer target = positions.get(dependency);
+                if (!loadedPlugins.contains(dependency) && (target == null || removed[target])) {
+                    return dependency;
+                }
+            }
+            return null;
+        }
 
-                while (pluginIterator.hasNext()) {
-                    String plugin = pluginIterator.next();
+        /**
+         * Loads and registers a plugin.
+         *
+         * @return true if the plugin was loaded
+         */
+        private boolean register(int position, List<Plugin> result) {
+            String name = names.get(position);
+            File file = files.get(position);
+            try {
+                Plugin plugin = loadPluginFile(file);
+                if (plugin != null) {
+                    addPlugin(plugin, file);
+                    result.add(plugin);
+                }
+                loadedPlugins.add(name);
+                remove(position, true);
+                return true;
+            } catch (InvalidPluginException ex) {
+                server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'", ex);
+                remove(position, false);
+                return false;
+            }
+        }
 
-                    if (!dependencies.containsKey(plugin)) {
-                        softDependencies.remove(plugin);
-                        missingDependency = false;
-                        File file = plugins.get(plugin);
-                        pluginIterator.remove();
+        private void remove(int plugin, boolean loaded) {
+            removed[plugin] = true;
+            remaining--;
+            withoutDependencies.remove(plugin);
+            for (int dependent : hardDependents.get(plugin)) {
+                if (!loaded) {
+                    missingDependency[dependent] = true;
+                } else if (--pendingDependencies[dependent] == 0 && !removed[dependent]) {
+                    withoutDependencies.add(dependent);
+                }
+                update(dependent);
+            }
+            for (int dependent : softDependents.get(plugin)) {
+                pendingSoftDependencies[dependent]--;
+                update(dependent);
+            }
+        }
 
-                        try {
-                            result.add(loadPlugin(file));
-                            loadedPlugins.add(plugin);
-                            break;
-                        } catch (InvalidPluginException ex) {
-                            server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "'", ex);
-                        }
-                    }
+        /**
+         * Queues a plugin once it has lost a dependency or is clear to load,
+         * for this pass if the pass has yet to reach it, else for the next.
+         */
+        private void update(int plugin) {
+            if (scheduled[plugin] || removed[plugin]) {
+                return;
+            }
+            if (missingDependency[plugin] || (pendingDependencies[plugin] == 0 && pendingSoftDependencies[plugin] == 0)) {
+                scheduled[plugin] = true;
+                if (plugin > position) {
+                    pass.add(plugin);
+                } else {
+                    nextPass.add(plugin);
                 }
-                // We have no plugins left without a depend
-                if (missingDependency) {
-                    softDependencies.clear();
-                    dependencies.clear();
-                    Iterator<File> failedPluginIterator = plugins.values().iterator();
-
-                    while (failedPluginIterator.hasNext()) {
-                        File file = failedPluginIterator.next();
-                        failedPluginIterator.remove();
-                        server.getLogger().log(Level.SEVERE, "Could not load '" + file.getPath() + "' in folder '" + directory.getPath() + "': circular dependency detected");
-                    }
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
                 }
             }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
+    }
 
-        return result.toArray(new Plugin[result.size()]);
+    private static ExecutorService createExecutor(int threads, final String name) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private List<Future<PluginDescriptionFile>> readDescriptions(List<File> files, final List<PluginLoader> loaders) {
+        List<Future<PluginDescriptionFile>> descriptions = new ArrayList<Future<PluginDescriptionFile>>(files.size());
+        int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+
+        if (threads <= 1) {
+            for (int i = 0; i < files.size(); i++) {
+                FutureTask<PluginDescriptionFile> task = new FutureTask<PluginDescriptionFile>(new DescriptionReader(loaders.get(i), files.get(i)));
+                task.run();
+                descriptions.add(task);
+            }
+            return descriptions;
+        }
+
+        ExecutorService executor = createExecutor(threads, "Plugin Description Reader");
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                descriptions.add(executor.submit(new DescriptionReader(loaders.get(i), files.get(i))));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return descriptions;
+    }
+
+    private static PluginDescriptionFile getDescription(Future<PluginDescriptionFile> description) throws InvalidDescriptionException {
+        try {
+            return await(description);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidDescriptionException) {
+                throw (InvalidDescriptionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new InvalidDescriptionException(cause);
+        }
+    }
+
+    private static final class DescriptionReader implements Callable<PluginDescriptionFile> {
+        private final PluginLoader loader;
+        private final File file;
+
+        DescriptionReader(final PluginLoader loader, final File file) {
+            this.loader = loader;
+            this.file = file;
+        }
+
+        public PluginDescriptionFile call() throws InvalidDescriptionException {
+            long start = System.nanoTime();
+            PluginDescriptionFile description = loader.getPluginDescription(file);
+            PluginStartupProfile.getProfile(description.getName()).addDescriptionTime(System.nanoTime() - start);
+            return description;
+        }
     }
 
     /**
@@ -313,6 +577,20 @@ public final class SimplePluginManager implements PluginManager {
     public synchronized Plugin loadPlugin(File file) throws InvalidPluginException, UnknownDependencyException {
         org.apache.commons.lang3.Validate.notNull(file, "File cannot be null");
 
+        Plugin result = loadPluginFile(file);
+        flushLoaders();
+
+        if (result != null) {
+            addPlugin(result, file);
+        }
+
+        return result;
+    }
+
+    /**
+     * Loads the plugin in the specified file without registering it
+     */
+    private Plugin loadPluginFile(File file) throws InvalidPluginException, UnknownDependencyException {
         checkUpdate(file);
 
         Set<Pattern> filters = fileAssociations.keySet();
@@ -329,22 +607,35 @@ public final class SimplePluginManager implements PluginManager {
             }
         }
 
-        if (result != null) {
-            plugins.add(result);
-            lookupNames.put(result.getDescription().getName(), result);
-        }
-
         return result;
     }
 
+    private synchronized void addPlugin(Plugin plugin, File file) {
+        plugins.add(plugin);
+        lookupNames.put(plugin.getDescription().getName(), plugin);
+        pluginFiles.put(plugin.getDescription().getName(), file);
+    }
+
     private void checkUpdate(File file) {
         if (updateDirectory == null || !updateDirectory.isDirectory()) {
             return;
         }
 
         File updateFile = new File(updateDirectory, file.getName());
-        if (updateFile.isFile() && FileUtil.copy(updateFile, file)) {
-            updateFile.delete();
+        if (!updateFile.isFile()) {
+            return;
+        }
+
+        // The old jar may still be mapped, so it must be replaced rather
+        // than overwritten in place
+        try {
+            try {
+                Files.move(updateFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(updateFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            server.getLogger().log(Level.WARNING, "Could not update " + file + " from " + updateFile, ex);
         }
     }
 
@@ -396,8 +687,10 @@ public final class SimplePluginManager implements PluginManager {
         if (!plugin.isEnabled()) {
             List<Command> pluginCommands = PluginCommandYamlParser.parse(plugin);
 
+            PluginStartupProfile profile = PluginStartupProfile.getProfile(plugin.getDescription().getName());
             if (!pluginCommands.isEmpty()) {
                 commandMap.registerAll(plugin.getDescription().getName(), pluginCommands);
+                profile.addCommandsRegistered(pluginCommands.size());
             }
 
             try {
@@ -406,7 +699,48 @@ public final class SimplePluginManager implements PluginManager {
                 server.getLogger().log(Level.SEVERE, "Error occurred (in the plugin loader) while enabling " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
             }
 
+            HandlerList.invalidateDispatchPlans(plugin);
             HandlerList.bakeAll();
+
+            profile.setEnableAttempted();
+            checkStartupComplete(profile);
+        }
+    }
+
+    /**
+     * Writes the {@link PluginStartupProfile startup report} and freezes the
+     * profiles once every loaded plugin has been enabled, or has failed to
+     * enable. Plugins enabled after that have their profile frozen alone.
+     *
+     * @param profile the profile of the plugin just enabled
+     */
+    private synchronized void checkStartupComplete(PluginStartupProfile profile) {
+        if (startupReported) {
+            profile.freeze();
+            return;
+        }
+        for (Plugin plugin : plugins) {
+            if (!PluginStartupProfile.getProfile(plugin.getDescription().getName()).isEnableAttempted()) {
+                return;
+            }
+        }
+        startupReported = true;
+        PluginStartupProfile.freezeAll();
+
+        File folder = new File("timings");
+        folder.mkdirs();
+        File report = new File(folder, "startup.txt");
+        PrintStream out = null;
+        try {
+            out = new PrintStream(report);
+            PluginStartupProfile.writeReport(out);
+            server.getLogger().info("Plugin startup report written to " + report.getPath());
+        } catch (IOException ex) {
+            server.getLogger().log(Level.WARNING, "Could not write plugin startup report to " + report.getPath(), ex);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
         }
     }
 
@@ -425,6 +759,8 @@ public final class SimplePluginManager implements PluginManager {
                 server.getLogger().log(Level.SEVERE, "Error occurred (in the plugin loader) while disabling " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
             }
 
+            HandlerList.invalidateDispatchPlans(plugin);
+
             try {
                 server.getScheduler().cancelTasks(plugin);
             } catch (Throwable ex) {
@@ -449,19 +785,206 @@ public final class SimplePluginManager implements PluginManager {
             } catch(Throwable ex) {
                 server.getLogger().log(Level.SEVERE, "Error occurred (in the plugin loader) while unregistering plugin channels for " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
             }
+
+            asyncDispatcher.removePlugin(plugin);
+            ListenerWatchdog watchdog = this.watchdog;
+            if (watchdog != null) {
+                watchdog.clear(plugin);
+            }
         }
     }
 
     public void clearPlugins() {
         synchronized (this) {
             disablePlugins();
+            // The loaders stay open, as tasks and threads may outlive the plugins
+            for (Plugin plugin : plugins) {
+                if (plugin.getPluginLoader() instanceof JavaPluginLoader) {
+                    ((JavaPluginLoader) plugin.getPluginLoader()).pluginUnloaded(plugin);
+                }
+            }
             plugins.clear();
             lookupNames.clear();
+            pluginFiles.clear();
             HandlerList.unregisterAll();
             fileAssociations.clear();
             permissions.clear();
+            permissionOwners.clear();
             defaultPerms.get(true).clear();
             defaultPerms.get(false).clear();
+            PluginStartupProfile.reset();
+            startupReported = false;
+        }
+    }
+
+    public Plugin[] reloadPlugin(Plugin plugin) {
+        org.apache.commons.lang3.Validate.notNull(plugin, "Plugin cannot be null");
+
+        // Only the registries are changed while holding the lock. The plugins
+        // are called back without it, as they may wait on other threads
+        // which need this plugin manager.
+        List<Plugin> reloading = new ArrayList<Plugin>();
+        synchronized (this) {
+            org.apache.commons.lang3.Validate.isTrue(plugins.contains(plugin), "Plugin is not loaded");
+
+            // The plugin and everything depending on it, kept in load order so
+            // dependencies are always loaded first
+            Set<String> names = new HashSet<String>();
+            names.add(plugin.getDescription().getName());
+            boolean found = true;
+            while (found) {
+                found = false;
+                for (Plugin dependent : plugins) {
+                    if (names.contains(dependent.getDescription().getName())) {
+                        continue;
+                    }
+                    for (String dependency : dependent.getDescription().getDepend()) {
+                        if (names.contains(dependency)) {
+                            names.add(dependent.getDescription().getName());
+                            found = true;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (Plugin loaded : plugins) {
+                if (names.contains(loaded.getDescription().getName())) {
+                    reloading.add(loaded);
+                }
+            }
+        }
+
+        Map<String, File> files = new HashMap<String, File>();
+        for (int i = reloading.size() - 1; i >= 0; i--) {
+            Plugin old = reloading.get(i);
+            disablePlugin(old);
+            Set<Permissible> affected;
+            synchronized (this) {
+                // Another reload may have removed it meanwhile
+                if (!plugins.contains(old)) {
+                    reloading.remove(i);
+                    continue;
+                }
+                files.put(old.getDescription().getName(), pluginFiles.get(old.getDescription().getName()));
+                affected = unloadPlugin(old);
+            }
+            for (Permissible permissible : affected) {
+                permissible.recalculatePermissions();
+            }
+            PluginStartupProfile.reset(old.getDescription().getName());
+        }
+
+        List<Plugin> result = new ArrayList<Plugin>();
+        Set<String> failed = new HashSet<String>();
+        for (Plugin old : reloading) {
+            String name = old.getDescription().getName();
+            File file = files.get(name);
+            try {
+                for (String dependency : old.getDescription().getDepend()) {
+                    if (failed.contains(dependency)) {
+                        throw new UnknownDependencyException(dependency);
+                    }
+                }
+
+                Plugin loaded = file == null ? null : loadPluginFile(file);
+                if (loaded == null) {
+                    server.getLogger().severe("Could not reload " + old.getDescription().getFullName() + ": no plugin loader accepts its file");
+                    failed.add(name);
+                    continue;
+                }
+
+                synchronized (this) {
+                    addPlugin(loaded, file);
+                    for (Permission permission : loaded.getDescription().getPermissions()) {
+                        try {
+                            addPermission(permission);
+                        } catch (IllegalArgumentException ex) {
+                            server.getLogger().log(Level.WARNING, "Plugin " + loaded.getDescription().getFullName() + " tried to register permission '" + permission.getName() + "' but it's already registered", ex);
+                        }
+                    }
+                }
+
+                loaded.getLogger().info("Loading " + loaded.getDescription().getFullName());
+                long start = System.nanoTime();
+                try {
+                    loaded.onLoad();
+                } catch (Throwable ex) {
+                    server.getLogger().log(Level.SEVERE, "Error occurred while loading " + loaded.getDescription().getFullName() + " (Is it up to date?)", ex);
+                } finally {
+                    PluginStartupProfile.getProfile(name).addLoadTime(System.nanoTime() - start);
+                }
+                result.add(loaded);
+            } catch (InvalidPluginException ex) {
+                server.getLogger().log(Level.SEVERE, "Could not reload " + old.getDescription().getFullName(), ex);
+                failed.add(name);
+            } catch (UnknownDependencyException ex) {
+                server.getLogger().log(Level.SEVERE, "Could not reload " + old.getDescription().getFullName(), ex);
+                failed.add(name);
+            }
+        }
+
+        flushLoaders();
+
+        for (Plugin loaded : result) {
+            enablePlugin(loaded);
+        }
+
+        return result.toArray(new Plugin[result.size()]);
+    }
+
+    /**
+     * Removes a disabled plugin, with its commands and permissions, and
+     * closes its class loader. Permissions the plugin registered itself at
+     * runtime are removed as well as the ones in its description.
+     *
+     * @return the permissibles which had one of the removed permissions, and
+     *     must have their permissions recalculated
+     */
+    private Set<Permissible> unloadPlugin(Plugin plugin) {
+        commandMap.unregisterCommands(plugin);
+
+        Set<Permissible> affected = new HashSet<Permissible>();
+        for (Permission permission : plugin.getDescription().getPermissions()) {
+            unloadPermission(permission.getName(), affected);
+        }
+        ClassLoader loader = plugin.getClass().getClassLoader();
+        for (Map.Entry<String, ClassLoader> owner : permissionOwners.entrySet()) {
+            if (owner.getValue() == loader) {
+                unloadPermission(owner.getKey(), affected);
+            }
+        }
+
+        plugins.remove(plugin);
+        lookupNames.remove(plugin.getDescription().getName());
+        pluginFiles.remove(plugin.getDescription().getName());
+        closeClassLoader(plugin);
+        return affected;
+    }
+
+    private void unloadPermission(String name, Set<Permissible> affected) {
+        Permission registered = permissions.get(name.toLowerCase());
+        if (registered != null) {
+            affected.addAll(getPermissionSubscriptions(registered.getName()));
+            removePermission(registered);
+            if (defaultPerms.get(true).remove(registered)) {
+                affected.addAll(getDefaultPermSubscriptions(true));
+            }
+            if (defaultPerms.get(false).remove(registered)) {
+                affected.addAll(getDefaultPermSubscriptions(false));
+            }
+        }
+    }
+
+    private void closeClassLoader(Plugin plugin) {
+        // A loader shared with the plugin loader itself must stay open
+        ClassLoader loader = plugin.getClass().getClassLoader();
+        if (loader instanceof Closeable && loader != plugin.getPluginLoader().getClass().getClassLoader()) {
+            try {
+                ((Closeable) loader).close();
+            } catch (IOException ex) {
+                server.getLogger().log(Level.WARNING, "Could not close the class loader of " + plugin.getDescription().getFullName(), ex);
+            }
         }
     }
 
@@ -469,6 +992,9 @@ public final class SimplePluginManager implements PluginManager {
      * Calls an event with the given details.
      * <p>
      * This method only synchronizes when the event is not asynchronous.
+     * When {@link #useLockFreeDispatch(boolean) lock-free dispatch} is
+     * enabled, synchronous events fired from the primary server thread do
+     * not synchronize either.
      *
      * @param event Event details
      */
@@ -481,6 +1007,8 @@ public final class SimplePluginManager implements PluginManager {
                 throw new IllegalStateException(event.getEventName() + " cannot be triggered asynchronously from primary server thread.");
             }
             fireEvent(event);
+        } else if (lockFreeDispatch && server.isPrimaryThread()) {
+            fireEvent(event);
         } else {
             synchronized (this) {
                 fireEvent(event);
@@ -488,33 +1016,199 @@ public final class SimplePluginManager implements PluginManager {
         }
     }
 
-    private void fireEvent(Event event) {
-        HandlerList handlers = event.getHandlers();
-        RegisteredListener[] listeners = handlers.getRegisteredListeners();
+    public <T extends Event> T callEvent(HandlerList handlers, Supplier<? extends T> eventSupplier) {
+        org.apache.commons.lang3.Validate.notNull(handlers, "Handlers cannot be null");
+        org.apache.commons.lang3.Validate.notNull(eventSupplier, "Event supplier cannot be null");
 
-        for (RegisteredListener registration : listeners) {
-            if (!registration.getPlugin().isEnabled()) {
-                continue;
+        if (!hasEnabledListeners(handlers)) {
+            return null;
+        }
+
+        T event = eventSupplier.get();
+        callEvent(event);
+        return event;
+    }
+
+    private boolean hasEnabledListeners(HandlerList handlers) {
+        if (!handlers.hasListeners()) {
+            return false;
+        }
+
+        for (RegisteredListener registration : handlers.getRegisteredListeners()) {
+            if (registration.getPlugin().isEnabled()) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            try {
-                registration.callEvent(event);
-            } catch (AuthorNagException ex) {
-                Plugin plugin = registration.getPlugin();
-
-                if (plugin.isNaggable()) {
-                    plugin.setNaggable(false);
-
-                    server.getLogger().log(Level.SEVERE, String.format(
-                            "Nag author(s): '%s' of '%s' about the following: %s",
-                            plugin.getDescription().getAuthors(),
-                            plugin.getDescription().getFullName(),
-                            ex.getMessage()
-                            ));
+    public <E extends Event> CompletableFuture<E> callEventAsync(E event) {
+        org.apache.commons.lang3.Validate.notNull(event, "Event cannot be null");
+        org.apache.commons.lang3.Validate.isTrue(event.isAsynchronous(), event.getEventName() + " is not an asynchronous event");
+
+        return asyncDispatcher.dispatch(event);
+    }
+
+    /**
+     * Sets the maximum number of listener calls that may run at once for a
+     * single plugin when events are called through {@link
+     * #callEventAsync(Event)}
+     *
+     * @param limit the limit, or 0 for no limit
+     */
+    public void setAsyncPluginConcurrency(int limit) {
+        asyncDispatcher.setPluginConcurrency(limit);
+    }
+
+    /**
+     * Gets the maximum number of listener calls that may run at once for a
+     * single plugin when events are called through {@link
+     * #callEventAsync(Event)}
+     *
+     * @return the limit, or 0 if there is no limit
+     */
+    public int getAsyncPluginConcurrency() {
+        return asyncDispatcher.getPluginConcurrency();
+    }
+
+    /**
+     * Sets the watchdog which records listener calls exceeding its budget.
+     * The watchdog is not started or stopped by this plugin manager.
+     *
+     * @param watchdog the watchdog to use, or null to disable it
+     */
+    public void setListenerWatchdog(ListenerWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Gets the watchdog which records listener calls exceeding its budget
+     *
+     * @return the watchdog, or null if none is used
+     */
+    public ListenerWatchdog getListenerWatchdog() {
+        return watchdog;
+    }
+
+    public void callEvents(Collection<? extends Event> events) {
+        org.apache.commons.lang3.Validate.notNull(events, "Events cannot be null");
+        if (events.isEmpty()) {
+            return;
+        }
+
+        Event first = events.iterator().next();
+        for (Event event : events) {
+            if (event.isAsynchronous() != first.isAsynchronous()) {
+                throw new IllegalArgumentException("Cannot call synchronous and asynchronous events in one batch");
+            }
+        }
+
+        if (first.isAsynchronous()) {
+            if (Thread.holdsLock(this)) {
+                throw new IllegalStateException(first.getEventName() + " cannot be triggered asynchronously from inside synchronized code.");
+            }
+            if (server.isPrimaryThread()) {
+                throw new IllegalStateException(first.getEventName() + " cannot be triggered asynchronously from primary server thread.");
+            }
+            fireEvents(events);
+        } else if (lockFreeDispatch && server.isPrimaryThread()) {
+            fireEvents(events);
+        } else {
+            synchronized (this) {
+                fireEvents(events);
+            }
+        }
+    }
+
+    private void fireEvents(Collection<? extends Event> events) {
+        List<Event> group = new ArrayList<Event>();
+        for (Event event : events) {
+            if (!group.isEmpty() && group.get(0).getClass() != event.getClass()) {
+                fireBatch(group);
+                group = new ArrayList<Event>();
+            }
+            group.add(event);
+        }
+        fireBatch(group);
+    }
+
+    private void fireBatch(List<Event> events) {
+        Event first = events.get(0);
+        DispatchPlan plan = first.getHandlers().getDispatchPlan(first.getClass());
+
+        for (RegisteredListener registration : plan.getListeners()) {
+            if (registration.isBatching()) {
+                ListenerWatchdog watchdog = this.watchdog;
+                Object call = watchdog == null ? null : watchdog.enter(registration, first);
+                try {
+                    registration.callEvents(events);
+                } catch (Throwable ex) {
+                    handleListenerException(registration, first, ex);
+                } finally {
+                    if (call != null) {
+                        watchdog.exit(call);
+                    }
                 }
-            } catch (Throwable ex) {
-                server.getLogger().log(Level.SEVERE, "Could not pass event " + event.getEventName() + " to " + registration.getPlugin().getDescription().getFullName(), ex);
+            } else {
+                for (Event event : events) {
+                    callListener(registration, event);
+                }
+            }
+        }
+    }
+
+    private void fireEvent(Event event) {
+        DispatchPlan plan = event.getHandlers().getDispatchPlan(event.getClass());
+        RegisteredListener[] listeners = plan.getListeners();
+
+        if (plan.isCancellable()) {
+            Cancellable cancellable = (Cancellable) event;
+            for (int i = 0; i < listeners.length; i++) {
+                if (cancellable.isCancelled()) {
+                    i = plan.getNextForCancelled(i);
+                    if (i == listeners.length) {
+                        break;
+                    }
+                }
+                callListener(listeners[i], event);
+            }
+        } else {
+            for (RegisteredListener registration : listeners) {
+                callListener(registration, event);
+            }
+        }
+    }
+
+    void callListener(RegisteredListener registration, Event event) {
+        ListenerWatchdog watchdog = this.watchdog;
+        Object call = watchdog == null ? null : watchdog.enter(registration, event);
+        try {
+            registration.callEvent(event);
+        } catch (Throwable ex) {
+            handleListenerException(registration, event, ex);
+        } finally {
+            if (call != null) {
+                watchdog.exit(call);
+            }
+        }
+    }
+
+    private void handleListenerException(RegisteredListener registration, Event event, Throwable ex) {
+        if (ex instanceof AuthorNagException) {
+            Plugin plugin = registration.getPlugin();
+
+            if (plugin.isNaggable()) {
+                plugin.setNaggable(false);
+
+                server.getLogger().log(Level.SEVERE, String.format(
+                        "Nag author(s): '%s' of '%s' about the following: %s",
+                        plugin.getDescription().getAuthors(),
+                        plugin.getDescription().getFullName(),
+                        ex.getMessage()
+                        ));
             }
+        } else {
+            server.getLogger().log(Level.SEVERE, "Could not pass event " + event.getEventName() + " to " + registration.getPlugin().getDescription().getFullName(), ex);
         }
     }
 
@@ -523,9 +1217,12 @@ public final class SimplePluginManager implements PluginManager {
             throw new IllegalPluginAccessException("Plugin attempted to register " + listener + " while not enabled");
         }
 
+        int registered = 0;
         for (Map.Entry<Class<? extends Event>, Set<RegisteredListener>> entry : plugin.getPluginLoader().createRegisteredListeners(listener, plugin).entrySet()) {
-            getEventListeners(getRegistrationClass(entry.getKey())).registerAll(entry.getValue());
+            getEventListeners(entry.getKey()).registerAll(entry.getValue());
+            registered += entry.getValue().size();
         }
+        PluginStartupProfile.getProfile(plugin.getDescription().getName()).addListenersRegistered(registered);
 
     }
 
@@ -555,14 +1252,21 @@ public final class SimplePluginManager implements PluginManager {
             throw new IllegalPluginAccessException("Plugin attempted to register " + event + " while not enabled");
         }
 
-        if (useTimings) {
-            getEventListeners(event).register(new TimedRegisteredListener(listener, executor, priority, plugin, ignoreCancelled));
+        if (useTimingHistograms) {
+            getEventListeners(event).register(new HistogramRegisteredListener(listener, executor, priority, plugin, ignoreCancelled, event));
+        } else if (useTimings) {
+            getEventListeners(event).register(new TimedRegisteredListener(listener, executor, priority, plugin, ignoreCancelled, event));
         } else {
-            getEventListeners(event).register(new RegisteredListener(listener, executor, priority, plugin, ignoreCancelled));
+            getEventListeners(event).register(new RegisteredListener(listener, executor, priority, plugin, ignoreCancelled, event));
         }
+        PluginStartupProfile.getProfile(plugin.getDescription().getName()).addListenersRegistered(1);
     }
 
     private HandlerList getEventListeners(Class<? extends Event> type) {
+        return handlerLists.get(type);
+    }
+
+    private static HandlerList findEventListeners(Class<? extends Event> type) {
         try {
             Method method = getRegistrationClass(type).getDeclaredMethod("getHandlerList");
             method.setAccessible(true);
@@ -572,7 +1276,7 @@ public final class SimplePluginManager implements PluginManager {
         }
     }
 
-    private Class<? extends Event> getRegistrationClass(Class<? extends Event> clazz) {
+    private static Class<? extends Event> getRegistrationClass(Class<? extends Event> clazz) {
         try {
             clazz.getDeclaredMethod("getHandlerList");
             return clazz;
@@ -600,6 +1304,31 @@ public final class SimplePluginManager implements PluginManager {
 
         permissions.put(name, perm);
         calculatePermissionDefault(perm);
+
+        ClassLoader owner = getCallerLoader();
+        if (owner != null) {
+            permissionOwners.put(name, owner);
+        }
+    }
+
+    /**
+     * Gets the class loader of the first caller outside of this API, which
+     * is the plugin calling in, if any
+     */
+    private static ClassLoader getCallerLoader() {
+        final ClassLoader api = SimplePluginManager.class.getClassLoader();
+        return stackWalker.walk(new Function<Stream<StackWalker.StackFrame>, ClassLoader>() {
+            public ClassLoader apply(Stream<StackWalker.StackFrame> frames) {
+                Iterator<StackWalker.StackFrame> iterator = frames.iterator();
+                while (iterator.hasNext()) {
+                    ClassLoader loader = iterator.next().getDeclaringClass().getClassLoader();
+                    if (loader != null && loader != api) {
+                        return loader;
+                    }
+                }
+                return null;
+            }
+        });
     }
 
     public Set<Permission> getDefaultPermissions(boolean op) {
@@ -612,6 +1341,7 @@ public final class SimplePluginManager implements PluginManager {
 
     public void removePermission(String name) {
         permissions.remove(name.toLowerCase());
+        permissionOwners.remove(name.toLowerCase());
     }
 
     public void recalculatePermissionDefaults(Permission perm) {
@@ -727,4 +1457,44 @@ public final class SimplePluginManager implements PluginManager {
     public void useTimings(boolean use) {
         useTimings = use;
     }
+
+    public boolean useTimingHistograms() {
+        return useTimingHistograms;
+    }
+
+    /**
+     * Sets whether event calls should record their latency in histograms.
+     * <p>
+     * Takes precedence over {@link #useTimings(boolean)} and only affects
+     * listeners registered after this call.
+     *
+     * @param use True if latency histograms should be used
+     */
+    public void useTimingHistograms(boolean use) {
+        useTimingHistograms = use;
+    }
+
+    /**
+     * Returns whether synchronous events fired from the primary server thread
+     * are dispatched without synchronizing on this plugin manager
+     *
+     * @return True if lock-free dispatch is used
+     */
+    public boolean useLockFreeDispatch() {
+        return lockFreeDispatch;
+    }
+
+    /**
+     * Sets whether synchronous events fired from the primary server thread
+     * should be dispatched without synchronizing on this plugin manager.
+     * <p>
+     * Listener registration is still safe while enabled, as every {@link
+     * HandlerList} publishes its changes through its baked handler array.
+     * Synchronous events fired from any other thread keep synchronizing.
+     *
+     * @param use True if lock-free dispatch should be used
+     */
+    public void useLockFreeDispatch(boolean use) {
+        lockFreeDispatch = use;
+    }
 }
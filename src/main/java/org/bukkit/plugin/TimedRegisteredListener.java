@@ -1,5 +1,7 @@
 package org.bukkit.plugin;
 
+import java.util.List;
+
 import org.bukkit.event.Event;
 import org.bukkit.event.EventException;
 import org.bukkit.event.EventPriority;
@@ -18,6 +20,10 @@ public class TimedRegisteredListener extends RegisteredListener {
         super(pluginListener, eventExecutor, eventPriority, registeredPlugin, listenCancelled);
     }
 
+    public TimedRegisteredListener(final Listener pluginListener, final EventExecutor eventExecutor, final EventPriority eventPriority, final Plugin registeredPlugin, final boolean listenCancelled, final Class<? extends Event> eventType) {
+        super(pluginListener, eventExecutor, eventPriority, registeredPlugin, listenCancelled, eventType);
+    }
+
     @Override
     public void callEvent(Event event) throws EventException {
         if (event.isAsynchronous()) {
@@ -37,6 +43,30 @@ public class TimedRegisteredListener extends RegisteredListener {
         totalTime += System.nanoTime() - start;
     }
 
+    @Override
+    public void callEvents(List<? extends Event> events) throws EventException {
+        if (!isBatching() || events.isEmpty()) {
+            super.callEvents(events);
+            return;
+        }
+        Event first = events.get(0);
+        if (first.isAsynchronous()) {
+            super.callEvents(events);
+            return;
+        }
+        count += events.size();
+        Class<? extends Event> newEventClass = first.getClass();
+        if (this.eventClass == null) {
+            this.eventClass = newEventClass;
+        } else if (!this.eventClass.equals(newEventClass)) {
+            multiple = true;
+            this.eventClass = getCommonSuperclass(newEventClass, this.eventClass).asSubclass(Event.class);
+        }
+        long start = System.nanoTime();
+        super.callEvents(events);
+        totalTime += System.nanoTime() - start;
+    }
+
     private static Class<?> getCommonSuperclass(Class<?> class1, Class<?> class2) {
         while (!class1.isAssignableFrom(class2)) {
             class1 = class1.getSuperclass();
@@ -0,0 +1,67 @@
+package org.bukkit.plugin.java;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.BatchEventExecutor;
+
+/**
+ * Calls an event handler method declared with {@code batch = true}, which
+ * takes a {@link List} of events. Single events are passed as a list of one.
+ */
+final class BatchHandlerExecutor implements BatchEventExecutor {
+    private final Method method;
+    private final Class<? extends Event> eventClass;
+    private final MethodHandle handler;
+
+    /**
+     * @param method the handler method
+     * @param eventClass the class of the events in the list
+     * @param handler the bound method, or null to call it by reflection
+     */
+    BatchHandlerExecutor(final Method method, final Class<? extends Event> eventClass, final MethodHandle handler) {
+        this.method = method;
+        this.eventClass = eventClass;
+        this.handler = handler;
+    }
+
+    public void execute(Listener listener, Event event) throws EventException {
+        if (!eventClass.isInstance(event)) {
+            return;
+        }
+        invoke(listener, Collections.singletonList(event));
+    }
+
+    public void executeBatch(Listener listener, List<? extends Event> events) throws EventException {
+        List<Event> accepted = new ArrayList<Event>(events.size());
+        for (Event event : events) {
+            if (eventClass.isInstance(event)) {
+                accepted.add(event);
+            }
+        }
+        if (!accepted.isEmpty()) {
+            invoke(listener, Collections.unmodifiableList(accepted));
+        }
+    }
+
+    private void invoke(Listener listener, List<Event> events) throws EventException {
+        try {
+            if (handler != null) {
+                handler.invokeExact((Object) listener, (Object) events);
+            } else {
+                method.invoke(listener, events);
+            }
+        } catch (InvocationTargetException ex) {
+            throw new EventException(ex.getCause());
+        } catch (Throwable t) {
+            throw new EventException(t);
+        }
+    }
+}
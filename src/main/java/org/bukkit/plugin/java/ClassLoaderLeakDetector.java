@@ -0,0 +1,325 @@
+package org.bukkit.plugin.java;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.Server;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.event.HandlerList;
+import org.bukkit.metadata.MetadataStoreBase;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.messaging.PluginMessageListenerRegistration;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Watches the class loaders of unloaded plugins for ones which are never
+ * garbage collected.
+ * <p>
+ * Every loader is tracked with a {@link PhantomReference} once its plugin is
+ * unloaded, whether or not the loader was closed. A loader still alive after the configured
+ * number of garbage collections is reported once, together with the
+ * retention roots this API knows about: event listeners, plugin channels,
+ * services, scheduler tasks, metadata values and serialization aliases.
+ * Anything else holding one of the plugin's classes, such as a thread or a
+ * static cache of another plugin, keeps the loader alive as well.
+ * <p>
+ * The monitor thread only waits for the loaders to be collected. The
+ * retention roots are looked up and reported on the thread of the given
+ * {@link Executor}, which should be the main thread, as the messenger,
+ * services manager and scheduler are not safe to query from elsewhere.
+ *
+ * @see JavaPluginLoader#setLeakDetector(ClassLoaderLeakDetector)
+ */
+public final class ClassLoaderLeakDetector {
+    private final Server server;
+    private final Executor executor;
+    private final Logger logger;
+    private final int collections;
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+    private final Set<TrackedLoader> tracked = ConcurrentHashMap.newKeySet();
+    private final List<MetadataStoreBase<?>> metadataStores = new CopyOnWriteArrayList<MetadataStoreBase<?>>();
+    private Thread monitor;
+
+    /**
+     * Creates a leak detector, which must be {@link #start() started} to
+     * report leaks on its own
+     *
+     * @param server Server whose messenger, services and scheduler are
+     *     checked for retention roots
+     * @param executor Executor to look up retention roots and report leaks
+     *     with, which should run tasks on the main thread
+     * @param logger Logger to report leaked loaders to
+     * @param collections Number of garbage collections an unloaded plugin's
+     *     loader may survive
+     */
+    public ClassLoaderLeakDetector(Server server, Executor executor, Logger logger, int collections) {
+        org.apache.commons.lang3.Validate.notNull(server, "Server cannot be null");
+        org.apache.commons.lang3.Validate.notNull(executor, "Executor cannot be null");
+        org.apache.commons.lang3.Validate.notNull(logger, "Logger cannot be null");
+        org.apache.commons.lang3.Validate.isTrue(collections > 0, "Collections must be positive");
+
+        this.server = server;
+        this.executor = executor;
+        this.logger = logger;
+        this.collections = collections;
+    }
+
+    /**
+     * Adds a metadata store to check for values owned by leaked plugins
+     *
+     * @param store the metadata store
+     */
+    public void addMetadataStore(MetadataStoreBase<?> store) {
+        org.apache.commons.lang3.Validate.notNull(store, "Store cannot be null");
+        metadataStores.add(store);
+    }
+
+    /**
+     * Starts the monitor thread, which checks the tracked loaders every
+     * second
+     */
+    public synchronized void start() {
+        if (monitor != null) {
+            return;
+        }
+        monitor = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "Bukkit Class Loader Leak Detector");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    /**
+     * Stops the monitor thread. Loaders are still tracked and can be checked
+     * with {@link #check()}.
+     */
+    public synchronized void stop() {
+        if (monitor != null) {
+            monitor.interrupt();
+            monitor = null;
+        }
+    }
+
+    /**
+     * Gets the number of garbage collections an unloaded plugin's loader may
+     * survive before it is reported
+     *
+     * @return the number of collections
+     */
+    public int getCollections() {
+        return collections;
+    }
+
+    /**
+     * Gets the names of the unloaded plugins whose loaders survived more
+     * than the allowed number of garbage collections
+     *
+     * @return the names of the leaked plugins
+     */
+    public List<String> getLeakedPlugins() {
+        List<String> result = new ArrayList<String>();
+        long now = getCollectionCount();
+        for (TrackedLoader loader : tracked) {
+            if (now - loader.collections >= collections) {
+                result.add(loader.name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets collected loaders and reports the loaders which survived more
+     * than the allowed number of garbage collections, if they were not
+     * reported before.
+     * <p>
+     * This must be called on the main thread.
+     */
+    public void check() {
+        for (TrackedLoader loader : poll()) {
+            report(loader);
+        }
+    }
+
+    /**
+     * Starts tracking the loader of a plugin which was just unloaded
+     *
+     * @param plugin the unloaded plugin
+     * @param loader the class loader of the plugin
+     */
+    void track(Plugin plugin, PluginClassLoader loader) {
+        tracked.add(new TrackedLoader(plugin, loader, queue, getCollectionCount()));
+    }
+
+    private synchronized List<TrackedLoader> poll() {
+        Reference<? extends ClassLoader> collected;
+        while ((collected = queue.poll()) != null) {
+            tracked.remove(collected);
+        }
+
+        List<TrackedLoader> leaked = new ArrayList<TrackedLoader>();
+        long now = getCollectionCount();
+        for (TrackedLoader loader : tracked) {
+            if (!loader.reported && now - loader.collections >= collections) {
+                loader.reported = true;
+                loader.survived = now - loader.collections;
+                leaked.add(loader);
+            }
+        }
+        return leaked;
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            try {
+                final List<TrackedLoader> leaked = poll();
+                if (!leaked.isEmpty()) {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            for (TrackedLoader loader : leaked) {
+                                report(loader);
+                            }
+                        }
+                    });
+                }
+            } catch (Throwable ex) {
+                logger.log(Level.WARNING, "Could not check for leaked plugin class loaders", ex);
+            }
+        }
+    }
+
+    private void report(TrackedLoader tracked) {
+        Plugin plugin = tracked.plugin.get();
+        ClassLoader loader = tracked.loader.get();
+        if (plugin == null || loader == null) {
+            // Collected since the last poll
+            return;
+        }
+
+        List<String> roots = findRoots(plugin, loader);
+        StringBuilder message = new StringBuilder();
+        message.append("Class loader of unloaded plugin ").append(tracked.name)
+                .append(" survived ").append(tracked.survived).append(" garbage collections");
+        if (roots.isEmpty()) {
+            message.append("; no known retention roots, it may be held by a thread or another plugin");
+        } else {
+            message.append("; likely retained by:");
+            for (String root : roots) {
+                message.append("\n    ").append(root);
+            }
+        }
+        logger.warning(message.toString());
+    }
+
+    private List<String> findRoots(Plugin plugin, ClassLoader loader) {
+        List<String> roots = new ArrayList<String>();
+
+        for (HandlerList handlers : HandlerList.getHandlerLists()) {
+            for (RegisteredListener listener : handlers.getRegisteredListeners()) {
+                if (listener.getPlugin() == plugin) {
+                    roots.add("HandlerList: listener " + listener.getListener().getClass().getName() + " is still registered");
+                } else if (listener.getListener().getClass().getClassLoader() == loader) {
+                    roots.add("HandlerList: listener " + listener.getListener().getClass().getName() + " is registered by " + listener.getPlugin().getName());
+                }
+            }
+        }
+
+        try {
+            for (String channel : server.getMessenger().getOutgoingChannels(plugin)) {
+                roots.add("Messenger: outgoing channel " + channel);
+            }
+            for (PluginMessageListenerRegistration registration : server.getMessenger().getIncomingChannelRegistrations(plugin)) {
+                roots.add("Messenger: incoming channel " + registration.getChannel());
+            }
+        } catch (Throwable ex) {
+            logger.log(Level.FINE, "Could not check plugin channels of " + plugin.getName(), ex);
+        }
+
+        try {
+            for (RegisteredServiceProvider<?> provider : server.getServicesManager().getRegistrations(plugin)) {
+                roots.add("ServicesManager: provider of " + provider.getService().getName());
+            }
+            for (Class<?> service : server.getServicesManager().getKnownServices()) {
+                for (RegisteredServiceProvider<?> provider : server.getServicesManager().getRegistrations(service)) {
+                    if (provider.getPlugin() != plugin && (service.getClassLoader() == loader || provider.getProvider().getClass().getClassLoader() == loader)) {
+                        roots.add("ServicesManager: provider of " + service.getName() + " registered by " + provider.getPlugin().getName());
+                    }
+                }
+            }
+        } catch (Throwable ex) {
+            logger.log(Level.FINE, "Could not check services of " + plugin.getName(), ex);
+        }
+
+        try {
+            for (BukkitTask task : server.getScheduler().getPendingTasks()) {
+                if (task.getOwner() == plugin) {
+                    roots.add("BukkitScheduler: task " + task.getTaskId());
+                }
+            }
+        } catch (Throwable ex) {
+            logger.log(Level.FINE, "Could not check scheduler tasks of " + plugin.getName(), ex);
+        }
+
+        for (MetadataStoreBase<?> store : metadataStores) {
+            int count = store.countMetadata(plugin);
+            if (count > 0) {
+                roots.add("Metadata: " + count + " value(s) in " + store.getClass().getName());
+            }
+        }
+
+        for (String alias : ConfigurationSerialization.getAliases(loader)) {
+            roots.add("ConfigurationSerialization: alias " + alias);
+        }
+
+        return roots;
+    }
+
+    private static long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long collections = bean.getCollectionCount();
+            if (collections > 0) {
+                count += collections;
+            }
+        }
+        return count;
+    }
+
+    private static final class TrackedLoader extends PhantomReference<ClassLoader> {
+        private final String name;
+        private final WeakReference<Plugin> plugin;
+        private final WeakReference<ClassLoader> loader;
+        private final long collections;
+        private volatile boolean reported;
+        private volatile long survived;
+
+        TrackedLoader(final Plugin plugin, final ClassLoader loader, final ReferenceQueue<ClassLoader> queue, final long collections) {
+            super(loader, queue);
+            this.name = plugin.getDescription().getFullName();
+            this.plugin = new WeakReference<Plugin>(plugin);
+            this.loader = new WeakReference<ClassLoader>(loader);
+            this.collections = collections;
+        }
+    }
+}
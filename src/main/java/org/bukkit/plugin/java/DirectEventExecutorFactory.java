@@ -0,0 +1,83 @@
+package org.bukkit.plugin.java;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.EventExecutorFactory;
+
+/**
+ * Creates executors which call the handler method through a {@link
+ * MethodHandle} instead of {@link Method#invoke(Object, Object...)}.
+ * <p>
+ * The handle is unreflected from the method after making it accessible, so
+ * it works for handlers in any plugin's {@link PluginClassLoader} without a
+ * lookup with full privileges in that loader. It is adapted once to take the
+ * listener and the event as plain objects, and kept in a final field of the
+ * executor.
+ */
+public final class DirectEventExecutorFactory implements EventExecutorFactory {
+    private static final MethodType ERASED_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the method cannot be made
+     *     accessible
+     */
+    public EventExecutor create(Method method, Class<? extends Event> eventClass) {
+        MethodHandle handler;
+        try {
+            handler = bind(method);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Cannot bind " + method.toGenericString(), ex);
+        }
+        return new DirectEventExecutor(handler, eventClass);
+    }
+
+    /**
+     * Binds a single parameter method to a handle taking the instance and
+     * the argument as objects, and ignoring any return value. The instance
+     * is ignored for static methods.
+     *
+     * @param method the method to bind
+     * @return the bound method
+     * @throws IllegalAccessException if the method cannot be accessed
+     * @throws RuntimeException if the method cannot be made accessible
+     */
+    static MethodHandle bind(Method method) throws IllegalAccessException {
+        method.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(method);
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        return handle.asType(ERASED_TYPE);
+    }
+
+    private static final class DirectEventExecutor implements EventExecutor {
+        private final MethodHandle handler;
+        private final Class<? extends Event> eventClass;
+
+        DirectEventExecutor(final MethodHandle handler, final Class<? extends Event> eventClass) {
+            this.handler = handler;
+            this.eventClass = eventClass;
+        }
+
+        public void execute(Listener listener, Event event) throws EventException {
+            if (!eventClass.isInstance(event)) {
+                return;
+            }
+            try {
+                handler.invokeExact((Object) listener, (Object) event);
+            } catch (Throwable t) {
+                throw new EventException(t);
+            }
+        }
+    }
+}
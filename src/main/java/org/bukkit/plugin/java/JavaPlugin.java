@@ -9,6 +9,7 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
@@ -24,6 +25,7 @@ import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.HandlerList;
 import org.bukkit.generator.ChunkGenerator;
 import org.bukkit.plugin.AuthorNagException;
 import org.bukkit.plugin.PluginAwareness;
@@ -45,6 +47,8 @@ import com.google.common.io.ByteStreams;
  * Represents a Java plugin
  */
 public abstract class JavaPlugin extends PluginBase {
+    private static final long RESOURCE_CACHE_SIZE = 4L * 1024 * 1024;
+
     private boolean isEnabled = false;
     private PluginLoader loader = null;
     private Server server = null;
@@ -57,6 +61,8 @@ public abstract class JavaPlugin extends PluginBase {
     private FileConfiguration newConfig = null;
     private File configFile = null;
     private PluginLogger logger = null;
+    private MappedJarFile jar = null;
+    private boolean jarUnavailable = false;
 
     public JavaPlugin() {
         final ClassLoader classLoader = this.getClass().getClassLoader();
@@ -258,7 +264,7 @@ public abstract class JavaPlugin extends PluginBase {
         try {
             if (!outFile.exists() || replace) {
                 OutputStream out = new FileOutputStream(outFile);
-                byte[] buf = new byte[1024];
+                byte[] buf = new byte[8192];
                 int len;
                 while ((len = in.read(buf)) > 0) {
                     out.write(buf, 0, len);
@@ -280,6 +286,12 @@ public abstract class JavaPlugin extends PluginBase {
         }
 
         try {
+            // Keep the class loader's order, where the parent comes first
+            MappedJarFile jar = getJar();
+            if (jar != null && jar.contains(filename) && getClassLoader().getParent().getResource(filename) == null) {
+                return jar.getInputStream(filename);
+            }
+
             URL url = getClassLoader().getResource(filename);
 
             if (url == null) {
@@ -294,6 +306,59 @@ public abstract class JavaPlugin extends PluginBase {
         }
     }
 
+    /**
+     * Gets the contents of a resource in this plugin's jar, read from a
+     * memory-mapped view of the jar.
+     * <p>
+     * Uncompressed entries are returned without copying, while compressed
+     * entries are inflated once and cached, up to a bounded number of bytes
+     * per plugin. Unlike {@link #getResource(String)}, only this plugin's jar
+     * is searched.
+     *
+     * @param filename Filename of the resource
+     * @return a read-only buffer of the resource, or null if it is not in
+     *     this plugin's jar
+     * @throws IllegalArgumentException if filename is null
+     */
+    public final ByteBuffer getResourceBuffer(String filename) {
+        if (filename == null) {
+            throw new IllegalArgumentException("Filename cannot be null");
+        }
+
+        MappedJarFile jar = getJar();
+        if (jar == null) {
+            return null;
+        }
+        try {
+            return jar.getBuffer(filename);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private synchronized MappedJarFile getJar() {
+        if (jar == null && !jarUnavailable && file != null) {
+            try {
+                jar = new MappedJarFile(file, RESOURCE_CACHE_SIZE);
+            } catch (IOException ex) {
+                jarUnavailable = true;
+                logger.log(Level.FINE, "Could not map " + file + ", falling back to the class loader for resources", ex);
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * Drops the mapped view of the jar once this plugin is disabled. The
+     * mapping itself is released when the buffers already handed out are
+     * garbage collected, and resources are read through the class loader
+     * from then on.
+     */
+    synchronized void releaseJar() {
+        jar = null;
+        jarUnavailable = true;
+    }
+
     /**
      * Returns the ClassLoader which holds this plugin
      *
@@ -311,6 +376,7 @@ public abstract class JavaPlugin extends PluginBase {
     protected final void setEnabled(final boolean enabled) {
         if (isEnabled != enabled) {
             isEnabled = enabled;
+            HandlerList.invalidateDispatchPlans(this);
 
             if (isEnabled) {
                 onEnable();
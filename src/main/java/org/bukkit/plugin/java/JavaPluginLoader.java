@@ -2,16 +2,24 @@ package org.bukkit.plugin.java;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -24,18 +32,22 @@ import org.bukkit.Warning.WarningState;
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
 import org.bukkit.configuration.serialization.ConfigurationSerialization;
 import org.bukkit.event.Event;
-import org.bukkit.event.EventException;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.event.server.PluginEnableEvent;
 import org.bukkit.plugin.AuthorNagException;
 import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.EventExecutorFactory;
+import org.bukkit.plugin.HistogramRegisteredListener;
 import org.bukkit.plugin.InvalidDescriptionException;
 import org.bukkit.plugin.InvalidPluginException;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginLoader;
+import org.bukkit.plugin.PluginStartupProfile;
 import org.bukkit.plugin.RegisteredListener;
 import org.bukkit.plugin.TimedRegisteredListener;
 import org.bukkit.plugin.UnknownDependencyException;
@@ -44,11 +56,22 @@ import org.yaml.snakeyaml.error.YAMLException;
 /**
  * Represents a Java plugin loader, allowing plugins in the form of .jar
  */
-public final class JavaPluginLoader implements PluginLoader {
+public final class JavaPluginLoader implements PluginLoader, Flushable {
     final Server server;
     private final Pattern[] fileFilters = new Pattern[] { Pattern.compile("\\.jar$"), };
-    private final Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+    /**
+     * Loaders of all loaded plugins, in load order. Guarded by its own
+     * monitor, as plugins may be loaded and unloaded from other threads.
+     */
     private final Map<String, PluginClassLoader> loaders = new LinkedHashMap<String, PluginClassLoader>();
+    private final Map<String, PluginClassLoader[]> packageLoaders = new ConcurrentHashMap<String, PluginClassLoader[]>();
+    private final Map<File, PluginIndex> indexes = new HashMap<File, PluginIndex>();
+    private volatile EventExecutorFactory executorFactory = new DirectEventExecutorFactory();
+    private volatile ClassLoaderLeakDetector leakDetector = null;
+    private volatile boolean reflectionFallbackLogged = false;
+    private final AtomicLong loadCount = new AtomicLong();
+    private volatile ClassValue<ListenerClass> listenerClasses = createListenerClassCache();
 
     /**
      * This class was not meant to be constructed explicitly
@@ -112,10 +135,10 @@ public final class JavaPluginLoader implements PluginLoader {
         }
 
         for (final String pluginName : description.getDepend()) {
-            if (loaders == null) {
-                throw new UnknownDependencyException(pluginName);
+            PluginClassLoader current;
+            synchronized (loaders) {
+                current = loaders.get(pluginName);
             }
-            PluginClassLoader current = loaders.get(pluginName);
 
             if (current == null) {
                 throw new UnknownDependencyException(pluginName);
@@ -123,15 +146,20 @@ public final class JavaPluginLoader implements PluginLoader {
         }
 
         final PluginClassLoader loader;
+        long start = System.nanoTime();
         try {
             loader = new PluginClassLoader(this, getClass().getClassLoader(), description, dataFolder, file);
         } catch (InvalidPluginException ex) {
             throw ex;
         } catch (Throwable ex) {
             throw new InvalidPluginException(ex);
+        } finally {
+            PluginStartupProfile.getProfile(description.getName()).addClassLoaderTime(System.nanoTime() - start);
         }
 
-        loaders.put(description.getName(), loader);
+        synchronized (loaders) {
+            loaders.put(description.getName(), loader);
+        }
 
         return loader.plugin;
     }
@@ -139,6 +167,12 @@ public final class JavaPluginLoader implements PluginLoader {
     public PluginDescriptionFile getPluginDescription(File file) throws InvalidDescriptionException {
         org.apache.commons.lang3.Validate.notNull(file, "File cannot be null");
 
+        PluginIndex index = getIndex(file);
+        PluginDescriptionFile description = index.getDescription(file);
+        if (description != null) {
+            return description;
+        }
+
         JarFile jar = null;
         InputStream stream = null;
 
@@ -152,7 +186,13 @@ public final class JavaPluginLoader implements PluginLoader {
 
             stream = jar.getInputStream(entry);
 
-            return new PluginDescriptionFile(stream);
+            description = new PluginDescriptionFile(stream);
+            index.putDescription(file, description);
+            // Descriptions are read in parallel, so index the jar while it is open
+            if (index.getPackages(file) == null) {
+                index.putPackages(file, PluginClassLoader.readPackages(jar));
+            }
+            return description;
 
         } catch (IOException ex) {
             throw new InvalidDescriptionException(ex);
@@ -178,15 +218,84 @@ public final class JavaPluginLoader implements PluginLoader {
         return fileFilters.clone();
     }
 
+    /**
+     * Gets the packages containing classes in the given plugin jar, from the
+     * plugin index if the jar has not changed
+     *
+     * @param file the plugin jar
+     * @return the package names, using an empty name for the default package
+     * @throws InvalidPluginException if the jar cannot be read
+     */
+    Set<String> getPackageNames(final File file) throws InvalidPluginException {
+        PluginIndex index = getIndex(file);
+        Set<String> packages = index.getPackages(file);
+        if (packages == null) {
+            packages = PluginClassLoader.readPackages(file);
+            index.putPackages(file, packages);
+        }
+        return packages;
+    }
+
+    /**
+     * Writes the plugin indexes changed by loading plugins. Called once
+     * loading a batch of plugins is done, rather than after every plugin.
+     *
+     * @throws IOException if an index file cannot be written
+     */
+    public void flush() throws IOException {
+        List<PluginIndex> pending;
+        synchronized (indexes) {
+            pending = new ArrayList<PluginIndex>(indexes.values());
+        }
+
+        IOException failure = null;
+        for (PluginIndex index : pending) {
+            try {
+                index.save();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private PluginIndex getIndex(final File file) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        synchronized (indexes) {
+            PluginIndex index = indexes.get(directory);
+            if (index == null) {
+                index = new PluginIndex(directory);
+                index.load();
+                indexes.put(directory, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Finds a class defined by, or definable by, any plugin. The loaders are
+     * asked in the order the plugins were loaded in, so the first loaded
+     * copy of a class wins. Each loader takes only its own lock for the
+     * name, so callers must not hold the lock of a loader.
+     *
+     * @param name the binary name of the class
+     * @return the class, or null if no plugin has it
+     */
     Class<?> getClassByName(final String name) {
         Class<?> cachedClass = classes.get(name);
 
         if (cachedClass != null) {
             return cachedClass;
         } else {
-            for (String current : loaders.keySet()) {
-                PluginClassLoader loader = loaders.get(current);
-
+            // Only the loaders whose jar contains the package can define it
+            int index = name.lastIndexOf('.');
+            PluginClassLoader[] candidates = packageLoaders.get(index == -1 ? "" : name.substring(0, index));
+            if (candidates == null) {
+                return null;
+            }
+            for (PluginClassLoader loader : candidates) {
                 try {
                     cachedClass = loader.findClass(name, false);
                 } catch (ClassNotFoundException cnfe) {}
@@ -198,7 +307,66 @@ public final class JavaPluginLoader implements PluginLoader {
         return null;
     }
 
-    void setClass(final String name, final Class<?> clazz) {
+    /**
+     * Numbers plugin loaders in the order they are created
+     *
+     * @return the position of a new loader in the load order
+     */
+    long nextLoadIndex() {
+        return loadCount.getAndIncrement();
+    }
+
+    /**
+     * Makes the packages of the given loader visible to the other plugins,
+     * keeping the loaders of each package in load order
+     *
+     * @param loader the loader to index
+     */
+    void addPackages(final PluginClassLoader loader) {
+        synchronized (packageLoaders) {
+            for (String name : loader.getPackageNames()) {
+                PluginClassLoader[] current = packageLoaders.get(name);
+                if (current == null) {
+                    packageLoaders.put(name, new PluginClassLoader[] {loader});
+                } else if (!Arrays.asList(current).contains(loader)) {
+                    int position = current.length;
+                    while (position > 0 && current[position - 1].loadIndex > loader.loadIndex) {
+                        position--;
+                    }
+                    PluginClassLoader[] updated = new PluginClassLoader[current.length + 1];
+                    System.arraycopy(current, 0, updated, 0, position);
+                    updated[position] = loader;
+                    System.arraycopy(current, position, updated, position + 1, current.length - position);
+                    packageLoaders.put(name, updated);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hides the packages of the given loader from the other plugins
+     *
+     * @param loader the loader to remove from the index
+     */
+    void removePackages(final PluginClassLoader loader) {
+        synchronized (packageLoaders) {
+            for (String name : loader.getPackageNames()) {
+                PluginClassLoader[] current = packageLoaders.get(name);
+                if (current == null) {
+                    continue;
+                }
+                List<PluginClassLoader> updated = new ArrayList<PluginClassLoader>(Arrays.asList(current));
+                updated.remove(loader);
+                if (updated.isEmpty()) {
+                    packageLoaders.remove(name);
+                } else {
+                    packageLoaders.put(name, updated.toArray(new PluginClassLoader[updated.size()]));
+                }
+            }
+        }
+    }
+
+    synchronized void setClass(final String name, final Class<?> clazz) {
         if (!classes.containsKey(name)) {
             classes.put(name, clazz);
 
@@ -209,7 +377,7 @@ public final class JavaPluginLoader implements PluginLoader {
         }
     }
 
-    private void removeClass(String name) {
+    private synchronized void removeClass(String name) {
         Class<?> clazz = classes.remove(name);
 
         try {
@@ -228,46 +396,34 @@ public final class JavaPluginLoader implements PluginLoader {
         org.apache.commons.lang3.Validate.notNull(listener, "Listener can not be null");
 
         boolean useTimings = server.getPluginManager().useTimings();
+        boolean useTimingHistograms = server.getPluginManager().useTimingHistograms();
         Map<Class<? extends Event>, Set<RegisteredListener>> ret = new HashMap<Class<? extends Event>, Set<RegisteredListener>>();
-        Set<Method> methods;
+        ListenerClass listenerClass;
         try {
-            Method[] publicMethods = listener.getClass().getMethods();
-            methods = new HashSet<Method>(publicMethods.length, Float.MAX_VALUE);
-            for (Method method : publicMethods) {
-                methods.add(method);
-            }
-            for (Method method : listener.getClass().getDeclaredMethods()) {
-                methods.add(method);
-            }
+            listenerClass = listenerClasses.get(listener.getClass());
         } catch (NoClassDefFoundError e) {
             plugin.getLogger().severe("Plugin " + plugin.getDescription().getFullName() + " has failed to register events for " + listener.getClass() + " because " + e.getMessage() + " does not exist.");
             return ret;
         }
 
-        for (final Method method : methods) {
-            final EventHandler eh = method.getAnnotation(EventHandler.class);
-            if (eh == null) continue;
-            final Class<?> checkClass;
-            if (method.getParameterTypes().length != 1 || !Event.class.isAssignableFrom(checkClass = method.getParameterTypes()[0])) {
-                plugin.getLogger().severe(plugin.getDescription().getFullName() + " attempted to register an invalid EventHandler method signature \"" + method.toGenericString() + "\" in " + listener.getClass());
-                continue;
-            }
-            final Class<? extends Event> eventClass = checkClass.asSubclass(Event.class);
-            method.setAccessible(true);
+        for (Method method : listenerClass.invalidMethods) {
+            plugin.getLogger().severe(plugin.getDescription().getFullName() + " attempted to register an invalid EventHandler method signature \"" + method.toGenericString() + "\" in " + listener.getClass());
+        }
+
+        for (HandlerMethod handler : listenerClass.handlers) {
+            final Class<? extends Event> eventClass = handler.eventClass;
             Set<RegisteredListener> eventSet = ret.get(eventClass);
             if (eventSet == null) {
                 eventSet = new HashSet<RegisteredListener>();
                 ret.put(eventClass, eventSet);
             }
 
-            for (Class<?> clazz = eventClass; Event.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
-                // This loop checks for extending deprecated events
-                if (clazz.getAnnotation(Deprecated.class) != null) {
-                    Warning warning = clazz.getAnnotation(Warning.class);
-                    WarningState warningState = server.getWarningState();
-                    if (!warningState.printFor(warning)) {
-                        break;
-                    }
+            if (handler.deprecatedClass != null) {
+                // The handled event extends a deprecated event
+                Class<?> clazz = handler.deprecatedClass;
+                Warning warning = clazz.getAnnotation(Warning.class);
+                WarningState warningState = server.getWarningState();
+                if (warningState.printFor(warning)) {
                     plugin.getLogger().log(
                             Level.WARNING,
                             String.format(
@@ -275,37 +431,210 @@ public final class JavaPluginLoader implements PluginLoader {
                                     " \"%s\"; please notify the authors %s.",
                                     plugin.getDescription().getFullName(),
                                     clazz.getName(),
-                                    method.toGenericString(),
+                                    handler.method.toGenericString(),
                                     (warning != null && warning.reason().length() != 0) ? warning.reason() : "Server performance will be affected",
                                     Arrays.toString(plugin.getDescription().getAuthors().toArray())),
                             warningState == WarningState.ON ? new AuthorNagException(null) : null);
-                    break;
                 }
             }
 
-            EventExecutor executor = new EventExecutor() {
-                public void execute(Listener listener, Event event) throws EventException {
-                    try {
-                        if (!eventClass.isAssignableFrom(event.getClass())) {
-                            return;
-                        }
-                        method.invoke(listener, event);
-                    } catch (InvocationTargetException ex) {
-                        throw new EventException(ex.getCause());
-                    } catch (Throwable t) {
-                        throw new EventException(t);
-                    }
-                }
-            };
-            if (useTimings) {
-                eventSet.add(new TimedRegisteredListener(listener, executor, eh.priority(), plugin, eh.ignoreCancelled()));
+            if (useTimingHistograms) {
+                eventSet.add(new HistogramRegisteredListener(listener, handler.executor, handler.priority, plugin, handler.ignoreCancelled, eventClass));
+            } else if (useTimings) {
+                eventSet.add(new TimedRegisteredListener(listener, handler.executor, handler.priority, plugin, handler.ignoreCancelled, eventClass));
             } else {
-                eventSet.add(new RegisteredListener(listener, executor, eh.priority(), plugin, eh.ignoreCancelled()));
+                eventSet.add(new RegisteredListener(listener, handler.executor, handler.priority, plugin, handler.ignoreCancelled, eventClass));
             }
         }
         return ret;
     }
 
+    private ListenerClass parseListenerClass(Class<?> type) {
+        Set<Method> methods;
+        Method[] publicMethods = type.getMethods();
+        methods = new HashSet<Method>(publicMethods.length, Float.MAX_VALUE);
+        for (Method method : publicMethods) {
+            methods.add(method);
+        }
+        for (Method method : type.getDeclaredMethods()) {
+            methods.add(method);
+        }
+
+        List<HandlerMethod> handlers = new ArrayList<HandlerMethod>();
+        List<Method> invalidMethods = new ArrayList<Method>();
+        for (final Method method : methods) {
+            final EventHandler eh = method.getAnnotation(EventHandler.class);
+            if (eh == null) continue;
+            final Class<?> checkClass = eh.batch() ? getBatchEventClass(method) : getEventClass(method);
+            if (checkClass == null) {
+                invalidMethods.add(method);
+                continue;
+            }
+            final Class<? extends Event> eventClass = checkClass.asSubclass(Event.class);
+            method.setAccessible(true);
+
+            Class<?> deprecatedClass = null;
+            for (Class<?> clazz = eventClass; Event.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+                // This loop checks for extending deprecated events
+                if (clazz.getAnnotation(Deprecated.class) != null) {
+                    deprecatedClass = clazz;
+                    break;
+                }
+            }
+
+            EventExecutor executor = eh.batch() ? new BatchHandlerExecutor(method, eventClass, bindBatchHandler(method)) : createExecutor(method, eventClass);
+            handlers.add(new HandlerMethod(method, eventClass, eh, deprecatedClass, executor));
+        }
+        return new ListenerClass(handlers, invalidMethods);
+    }
+
+    private static Class<?> getEventClass(Method method) {
+        Class<?>[] parameters = method.getParameterTypes();
+        if (parameters.length != 1 || !Event.class.isAssignableFrom(parameters[0])) {
+            return null;
+        }
+        return parameters[0];
+    }
+
+    private static Class<?> getBatchEventClass(Method method) {
+        Type[] parameters = method.getGenericParameterTypes();
+        if (parameters.length != 1 || !(parameters[0] instanceof ParameterizedType)) {
+            return null;
+        }
+
+        ParameterizedType type = (ParameterizedType) parameters[0];
+        if (type.getRawType() != List.class) {
+            return null;
+        }
+
+        Type element = type.getActualTypeArguments()[0];
+        if (element instanceof WildcardType) {
+            element = ((WildcardType) element).getUpperBounds()[0];
+        }
+        if (!(element instanceof Class) || !Event.class.isAssignableFrom((Class<?>) element)) {
+            return null;
+        }
+        return (Class<?>) element;
+    }
+
+    private EventExecutor createExecutor(Method method, Class<? extends Event> eventClass) {
+        EventExecutor executor = null;
+        try {
+            executor = executorFactory.create(method, eventClass);
+        } catch (Throwable ex) {
+            logReflectionFallback(method, ex);
+        }
+        if (executor == null) {
+            executor = new ReflectiveEventExecutor(method, eventClass);
+        }
+        return executor;
+    }
+
+    private MethodHandle bindBatchHandler(Method method) {
+        try {
+            return DirectEventExecutorFactory.bind(method);
+        } catch (Throwable ex) {
+            logReflectionFallback(method, ex);
+            return null;
+        }
+    }
+
+    private void logReflectionFallback(Method method, Throwable ex) {
+        // Warn once, as every later handler most likely fails the same way
+        Level level = reflectionFallbackLogged ? Level.FINE : Level.WARNING;
+        reflectionFallbackLogged = true;
+        server.getLogger().log(level, "Could not bind event handler \"" + method.toGenericString() + "\" directly, falling back to reflection", ex);
+    }
+
+    /**
+     * Gets the factory used to create executors for annotated event handler
+     * methods
+     *
+     * @return the current executor factory
+     */
+    public EventExecutorFactory getEventExecutorFactory() {
+        return executorFactory;
+    }
+
+    /**
+     * Sets the factory used to create executors for annotated event handler
+     * methods. Methods the factory cannot bind are called through
+     * reflection.
+     * <p>
+     * Only affects listeners registered after this call, and discards the
+     * cached handler metadata of all listener classes.
+     *
+     * @param factory the new executor factory
+     */
+    public void setEventExecutorFactory(EventExecutorFactory factory) {
+        org.apache.commons.lang3.Validate.notNull(factory, "Factory cannot be null");
+        executorFactory = factory;
+        listenerClasses = createListenerClassCache();
+    }
+
+    /**
+     * Gets the detector tracking the class loaders of unloaded plugins
+     *
+     * @return the leak detector, or null if none is set
+     */
+    public ClassLoaderLeakDetector getLeakDetector() {
+        return leakDetector;
+    }
+
+    /**
+     * Sets the detector tracking the class loaders of unloaded plugins. Only
+     * plugins unloaded after this call are tracked.
+     *
+     * @param detector the leak detector, or null to stop tracking
+     */
+    public void setLeakDetector(ClassLoaderLeakDetector detector) {
+        leakDetector = detector;
+    }
+
+    private ClassValue<ListenerClass> createListenerClassCache() {
+        return new ClassValue<ListenerClass>() {
+            @Override
+            protected ListenerClass computeValue(Class<?> type) {
+                return parseListenerClass(type);
+            }
+        };
+    }
+
+    /**
+     * The parsed event handlers of a listener class, shared by every
+     * registration of that class
+     */
+    private static final class ListenerClass {
+        final List<HandlerMethod> handlers;
+        final List<Method> invalidMethods;
+
+        ListenerClass(final List<HandlerMethod> handlers, final List<Method> invalidMethods) {
+            this.handlers = handlers;
+            this.invalidMethods = invalidMethods;
+        }
+    }
+
+    /**
+     * An event handler method with its annotation values and executor
+     */
+    private static final class HandlerMethod {
+        final Method method;
+        final Class<? extends Event> eventClass;
+        final EventPriority priority;
+        final boolean ignoreCancelled;
+        final Class<?> deprecatedClass;
+        final EventExecutor executor;
+
+        HandlerMethod(final Method method, final Class<? extends Event> eventClass, final EventHandler eh, final Class<?> deprecatedClass, final EventExecutor executor) {
+            this.method = method;
+            this.eventClass = eventClass;
+            this.priority = eh.priority();
+            this.ignoreCancelled = eh.ignoreCancelled();
+            this.deprecatedClass = deprecatedClass;
+            this.executor = executor;
+        }
+    }
+
     public void enablePlugin(final Plugin plugin) {
         org.apache.commons.lang3.Validate.isTrue(plugin instanceof JavaPlugin, "Plugin is not associated with this PluginLoader");
 
@@ -316,14 +645,20 @@ public final class JavaPluginLoader implements PluginLoader {
 
             String pluginName = jPlugin.getDescription().getName();
 
-            if (!loaders.containsKey(pluginName)) {
-                loaders.put(pluginName, (PluginClassLoader) jPlugin.getClassLoader());
+            synchronized (loaders) {
+                if (!loaders.containsKey(pluginName)) {
+                    loaders.put(pluginName, (PluginClassLoader) jPlugin.getClassLoader());
+                }
             }
+            addPackages((PluginClassLoader) jPlugin.getClassLoader());
 
+            long start = System.nanoTime();
             try {
                 jPlugin.setEnabled(true);
             } catch (Throwable ex) {
                 server.getLogger().log(Level.SEVERE, "Error occurred while enabling " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
+            } finally {
+                PluginStartupProfile.getProfile(pluginName).addEnableTime(System.nanoTime() - start);
             }
 
             // Perhaps abort here, rather than continue going, but as it stands,
@@ -349,11 +684,16 @@ public final class JavaPluginLoader implements PluginLoader {
             } catch (Throwable ex) {
                 server.getLogger().log(Level.SEVERE, "Error occurred while disabling " + plugin.getDescription().getFullName() + " (Is it up to date?)", ex);
             }
+            jPlugin.releaseJar();
 
-            loaders.remove(jPlugin.getDescription().getName());
+            synchronized (loaders) {
+                loaders.remove(jPlugin.getDescription().getName());
+            }
 
             if (cloader instanceof PluginClassLoader) {
                 PluginClassLoader loader = (PluginClassLoader) cloader;
+                removePackages(loader);
+                HandlerList.discardDispatchPlans(loader);
                 Set<String> names = loader.getClasses();
 
                 for (String name : names) {
@@ -362,4 +702,40 @@ public final class JavaPluginLoader implements PluginLoader {
             }
         }
     }
+
+    /**
+     * Tells this loader that a plugin was unloaded while its class loader
+     * was left open, as classes may still be needed by tasks and threads
+     * which outlive it, such as when the server reloads. Plugins unloaded
+     * by the plugin manager on their own have their class loader closed,
+     * which does the same.
+     *
+     * @param plugin the unloaded plugin
+     */
+    public void pluginUnloaded(Plugin plugin) {
+        org.apache.commons.lang3.Validate.notNull(plugin, "Plugin cannot be null");
+
+        ClassLoader loader = plugin.getClass().getClassLoader();
+        if (loader instanceof PluginClassLoader) {
+            ((PluginClassLoader) loader).unloaded();
+        }
+    }
+
+    void unloaded(PluginClassLoader loader) {
+        // Plugins soft depending on it may stay loaded and must not keep its classes
+        List<PluginClassLoader> others;
+        synchronized (loaders) {
+            others = new ArrayList<PluginClassLoader>(loaders.values());
+        }
+        for (PluginClassLoader other : others) {
+            if (other != loader) {
+                other.forgetClasses(loader);
+            }
+        }
+
+        ClassLoaderLeakDetector detector = leakDetector;
+        if (detector != null && loader.plugin != null) {
+            detector.track(loader.plugin, loader);
+        }
+    }
 }
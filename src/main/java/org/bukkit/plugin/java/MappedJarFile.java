@@ -0,0 +1,288 @@
+package org.bukkit.plugin.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only, memory-mapped view of a plugin jar.
+ * <p>
+ * The central directory is read once into an index of entries. Stored
+ * entries are returned as slices of the mapping without copying, while
+ * deflated entries are inflated on first use and kept in a cache bounded by
+ * the total size of the inflated bytes, evicting the least recently used.
+ * <p>
+ * Zip64 and encrypted jars are not supported. Since the jar is mapped, it
+ * must be replaced by moving a new file over it, never by overwriting it in
+ * place, as the server would crash on reading a truncated mapping.
+ */
+final class MappedJarFile {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> entries;
+    private final long maxCacheSize;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long cacheSize = 0;
+
+    /**
+     * Maps the given jar and reads its central directory
+     *
+     * @param file the jar to map
+     * @param maxCacheSize the maximum number of inflated bytes to cache
+     * @throws IOException if the jar cannot be mapped or is not a supported
+     *     zip file
+     */
+    MappedJarFile(final File file, final long maxCacheSize) throws IOException {
+        this.maxCacheSize = maxCacheSize;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ZipException("Jar is too large to map: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        entries = readCentralDirectory();
+    }
+
+    private Map<String, Entry> readCentralDirectory() throws ZipException {
+        int end = findEnd();
+        int count = buffer.getShort(end + 10) & 0xffff;
+        long offset = buffer.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || offset == 0xffffffffL) {
+            throw new ZipException("Zip64 jars are not supported");
+        }
+
+        Map<String, Entry> result = new HashMap<String, Entry>(count * 2);
+        int position = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_SIZE > buffer.limit() || buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry");
+            }
+            int flags = buffer.getShort(position + 8) & 0xffff;
+            int method = buffer.getShort(position + 10) & 0xffff;
+            long compressedSize = buffer.getInt(position + 20) & 0xffffffffL;
+            long size = buffer.getInt(position + 24) & 0xffffffffL;
+            int nameLength = buffer.getShort(position + 28) & 0xffff;
+            int extraLength = buffer.getShort(position + 30) & 0xffff;
+            int commentLength = buffer.getShort(position + 32) & 0xffff;
+            long localOffset = buffer.getInt(position + 42) & 0xffffffffL;
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + CENTRAL_SIZE);
+            view.get(name);
+
+            // Encrypted entries cannot be read
+            if ((flags & 1) == 0 && compressedSize <= Integer.MAX_VALUE && size <= Integer.MAX_VALUE) {
+                result.put(new String(name, StandardCharsets.UTF_8), new Entry(method, (int) compressedSize, (int) size, (int) localOffset));
+            }
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private int findEnd() throws ZipException {
+        // The end record is followed by a comment of at most 65535 bytes
+        int limit = Math.max(0, buffer.limit() - END_SIZE - 0xffff);
+        for (int position = buffer.limit() - END_SIZE; position >= limit; position--) {
+            if (buffer.getInt(position) == END_SIGNATURE) {
+                return position;
+            }
+        }
+        throw new ZipException("No end of central directory record");
+    }
+
+    /**
+     * Checks if the jar contains the given entry
+     *
+     * @param name the entry name
+     * @return true if the entry exists and can be read
+     */
+    boolean contains(String name) {
+        Entry entry = entries.get(name);
+        return entry != null && (entry.method == STORED || entry.method == DEFLATED);
+    }
+
+    /**
+     * Gets the contents of an entry
+     *
+     * @param name the entry name
+     * @return a read-only buffer of the contents, or null if the entry does
+     *     not exist or uses an unsupported compression method
+     * @throws IOException if the entry is corrupt
+     */
+    ByteBuffer getBuffer(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.method == STORED) {
+            return slice(entry, entry.size);
+        } else if (entry.method != DEFLATED) {
+            return null;
+        }
+
+        byte[] bytes;
+        synchronized (cache) {
+            bytes = cache.get(name);
+        }
+        if (bytes == null) {
+            bytes = inflate(entry);
+            cache(name, bytes);
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Opens a stream of the contents of an entry
+     *
+     * @param name the entry name
+     * @return a stream of the contents, or null if the entry does not exist
+     *     or uses an unsupported compression method
+     * @throws IOException if the entry is corrupt
+     */
+    InputStream getInputStream(String name) throws IOException {
+        ByteBuffer contents = getBuffer(name);
+        return contents == null ? null : new BufferInputStream(contents);
+    }
+
+    private ByteBuffer slice(Entry entry, int length) throws ZipException {
+        int local = entry.localOffset;
+        if (local + LOCAL_SIZE > buffer.limit() || buffer.getInt(local) != LOCAL_SIGNATURE) {
+            throw new ZipException("Invalid local header");
+        }
+        int start = local + LOCAL_SIZE + (buffer.getShort(local + 26) & 0xffff) + (buffer.getShort(local + 28) & 0xffff);
+        if (start + length > buffer.limit()) {
+            throw new ZipException("Truncated entry");
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.limit(start + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private byte[] inflate(Entry entry) throws IOException {
+        ByteBuffer input = slice(entry, entry.compressedSize);
+        byte[] output = new byte[entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input);
+            int length = 0;
+            while (length < output.length) {
+                int read = inflater.inflate(output, length, output.length - length);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != output.length) {
+                throw new ZipException("Inflated size does not match the central directory");
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException(ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return output;
+    }
+
+    private void cache(String name, byte[] bytes) {
+        if (bytes.length > maxCacheSize) {
+            return;
+        }
+        synchronized (cache) {
+            byte[] previous = cache.put(name, bytes);
+            if (previous != null) {
+                cacheSize -= previous.length;
+            }
+            cacheSize += bytes.length;
+
+            Iterator<byte[]> eldest = cache.values().iterator();
+            while (cacheSize > maxCacheSize && eldest.hasNext()) {
+                cacheSize -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final int method;
+        final int compressedSize;
+        final int size;
+        final int localOffset;
+
+        Entry(final int method, final int compressedSize, final int size, final int localOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long count) {
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
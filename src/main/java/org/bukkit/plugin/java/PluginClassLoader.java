@@ -1,26 +1,43 @@
 package org.bukkit.plugin.java;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 import org.apache.commons.lang3.Validate;
 import org.bukkit.plugin.InvalidPluginException;
 import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginStartupProfile;
 
 /**
  * A ClassLoader for plugins, to allow shared classes across multiple plugins
  */
 final class PluginClassLoader extends URLClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
     private final JavaPluginLoader loader;
-    private final Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+    private final Set<String> packages;
+    private final PluginStartupProfile profile;
     private final PluginDescriptionFile description;
     private final File dataFolder;
     private final File file;
+    private final AtomicBoolean unloaded = new AtomicBoolean(false);
+    final long loadIndex;
     final JavaPlugin plugin;
     private JavaPlugin pluginInit;
     private IllegalStateException pluginState;
@@ -33,7 +50,14 @@ final class PluginClassLoader extends URLClassLoader {
         this.description = description;
         this.dataFolder = dataFolder;
         this.file = file;
+        this.profile = PluginStartupProfile.getProfile(description.getName());
+        this.packages = loader.getPackageNames(file);
+        this.loadIndex = loader.nextLoadIndex();
+
+        // Other plugins may look up our classes while the main class loads
+        loader.addPackages(this);
 
+        boolean loaded = false;
         try {
             Class<?> jarClass;
             try {
@@ -50,13 +74,47 @@ final class PluginClassLoader extends URLClassLoader {
             }
 
             plugin = pluginClass.newInstance();
+            loaded = true;
         } catch (IllegalAccessException ex) {
             throw new InvalidPluginException("No public constructor", ex);
         } catch (InstantiationException ex) {
             throw new InvalidPluginException("Abnormal plugin type", ex);
+        } finally {
+            if (!loaded) {
+                loader.removePackages(this);
+            }
         }
     }
 
+    /**
+     * Loads a class like {@link ClassLoader#loadClass(String, boolean)}, but
+     * only holds the lock for the class name while checking the classes
+     * already loaded and the parent loader. Looking through the other
+     * plugins takes their locks, and two loaders doing so while holding
+     * their own could each wait for the other forever.
+     */
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> result;
+        synchronized (getClassLoadingLock(name)) {
+            result = findLoadedClass(name);
+            if (result == null) {
+                try {
+                    result = getParent().loadClass(name);
+                } catch (ClassNotFoundException ex) {
+                }
+            }
+        }
+
+        if (result == null) {
+            result = findClass(name, true);
+        }
+        if (resolve) {
+            resolveClass(result);
+        }
+        return result;
+    }
+
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
         return findClass(name, true);
@@ -74,11 +132,23 @@ final class PluginClassLoader extends URLClassLoader {
             }
 
             if (result == null) {
-                result = super.findClass(name);
-
-                if (result != null) {
-                    loader.setClass(name, result);
+                // Other loaders call in here directly, bypassing loadClass.
+                // Only this lock is taken here, and the caller holds none.
+                synchronized (getClassLoadingLock(name)) {
+                    result = classes.get(name);
+                    if (result != null) {
+                        return result;
+                    }
+
+                    result = super.findClass(name);
+
+                    if (result != null) {
+                        loader.setClass(name, result);
+                        profile.addClassesLoaded(1);
+                    }
+                    classes.put(name, result);
                 }
+                return result;
             }
 
             classes.put(name, result);
@@ -91,6 +161,85 @@ final class PluginClassLoader extends URLClassLoader {
         return classes.keySet();
     }
 
+    /**
+     * Forgets the classes this loader found through the loader of an
+     * unloaded plugin, so they are looked up again once it is replaced.
+     * Classes already linked against them keep using them.
+     *
+     * @param unloaded the loader of the unloaded plugin
+     */
+    void forgetClasses(PluginClassLoader unloaded) {
+        Iterator<Class<?>> iterator = classes.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getClassLoader() == unloaded) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes the jar of this loader once its plugin is unloaded, after which
+     * the loader is expected to be garbage collected
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            unloaded();
+        }
+    }
+
+    /**
+     * Marks the plugin of this loader as unloaded, whether or not the
+     * loader is closed
+     */
+    void unloaded() {
+        if (unloaded.compareAndSet(false, true)) {
+            loader.unloaded(this);
+        }
+    }
+
+    /**
+     * Gets the packages containing classes in the jar of this loader
+     *
+     * @return the package names, using an empty name for the default package
+     */
+    Set<String> getPackageNames() {
+        return packages;
+    }
+
+    static Set<String> readPackages(File file) throws InvalidPluginException {
+        JarFile jar = null;
+        try {
+            jar = new JarFile(file);
+            return readPackages(jar);
+        } catch (IOException ex) {
+            throw new InvalidPluginException(ex);
+        } finally {
+            if (jar != null) {
+                try {
+                    jar.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    static Set<String> readPackages(JarFile jar) {
+        Set<String> packages = new HashSet<String>();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+                continue;
+            }
+            int index = name.lastIndexOf('/');
+            packages.add(index == -1 ? "" : name.substring(0, index).replace('/', '.'));
+        }
+        return Collections.unmodifiableSet(packages);
+    }
+
     synchronized void initialize(JavaPlugin javaPlugin) {
         org.apache.commons.lang3.Validate.notNull(javaPlugin, "Initializing plugin cannot be null");
         org.apache.commons.lang3.Validate.isTrue(javaPlugin.getClass().getClassLoader() == this, "Cannot initialize plugin outside of this class loader");
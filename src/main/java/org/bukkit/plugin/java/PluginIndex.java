@@ -0,0 +1,257 @@
+package org.bukkit.plugin.java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+/**
+ * An on-disk index of the plugin jars in one directory, so the next start
+ * can skip opening a jar to read its description or scan its classes.
+ * <p>
+ * Each jar is keyed by its file name, and its entry is only used while the
+ * size and modification time of the jar are unchanged. Anything which cannot
+ * be read from the index is read from the jar and stored again.
+ */
+final class PluginIndex {
+    static final String FILE_NAME = ".plugin-index.bin";
+    private static final int MAGIC = 0x424B5049;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private boolean dirty;
+
+    PluginIndex(final File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Reads the index file, leaving the index empty if it is missing or
+     * cannot be read
+     */
+    synchronized void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong());
+
+                int length = in.readInt();
+                if (length >= 0) {
+                    entry.description = new byte[length];
+                    in.readFully(entry.description);
+                }
+
+                int packageCount = in.readInt();
+                if (packageCount >= 0) {
+                    Set<String> packages = new HashSet<String>();
+                    for (int j = 0; j < packageCount; j++) {
+                        packages.add(in.readUTF());
+                    }
+                    entry.packages = Collections.unmodifiableSet(packages);
+                }
+
+                entries.put(name, entry);
+            }
+        } catch (IOException ex) {
+            // A broken index is rebuilt from the jars
+            entries.clear();
+            dirty = true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the index file if anything changed since it was read, dropping
+     * the entries of jars which no longer exist. Entries cannot change while
+     * the index is written, so none are lost.
+     *
+     * @throws IOException if the index file cannot be written
+     */
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        File directory = file.getParentFile();
+        for (String name : entries.keySet()) {
+            if (!new File(directory, name).isFile()) {
+                entries.remove(name);
+            }
+        }
+
+        File temp = new File(directory, FILE_NAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Map<String, Entry> snapshot = new TreeMap<String, Entry>(entries);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                Entry value = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(value.length);
+                out.writeLong(value.lastModified);
+
+                byte[] description = value.description;
+                if (description == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(description.length);
+                    out.write(description);
+                }
+
+                Set<String> packages = value.packages;
+                if (packages == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(packages.size());
+                    for (String name : packages) {
+                        out.writeUTF(name);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            dirty = true;
+            throw ex;
+        } finally {
+            out.close();
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Gets the indexed description of the given jar
+     *
+     * @param jar the plugin jar
+     * @return the description, or null if it is not indexed or the jar has
+     *     changed
+     */
+    PluginDescriptionFile getDescription(File jar) {
+        Entry entry = getEntry(jar);
+        byte[] description = entry == null ? null : entry.description;
+        if (description == null) {
+            return null;
+        }
+
+        try {
+            return PluginDescriptionFile.read(new DataInputStream(new ByteArrayInputStream(description)));
+        } catch (IOException ex) {
+            return null;
+        } catch (InvalidDescriptionException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Indexes the description read from the given jar. Descriptions holding
+     * values with no binary form are not indexed.
+     *
+     * @param jar the plugin jar
+     * @param description the description read from the jar
+     */
+    void putDescription(File jar, PluginDescriptionFile description) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            description.write(new DataOutputStream(bytes));
+        } catch (IOException ex) {
+            return;
+        }
+        synchronized (this) {
+            getOrCreateEntry(jar).description = bytes.toByteArray();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Gets the indexed class packages of the given jar
+     *
+     * @param jar the plugin jar
+     * @return the package names, or null if they are not indexed or the jar
+     *     has changed
+     */
+    Set<String> getPackages(File jar) {
+        Entry entry = getEntry(jar);
+        return entry == null ? null : entry.packages;
+    }
+
+    /**
+     * Indexes the class packages scanned from the given jar
+     *
+     * @param jar the plugin jar
+     * @param packages the package names of the jar
+     */
+    synchronized void putPackages(File jar, Set<String> packages) {
+        getOrCreateEntry(jar).packages = packages;
+        dirty = true;
+    }
+
+    private Entry getEntry(File jar) {
+        Entry entry = entries.get(jar.getName());
+        if (entry == null || entry.length != jar.length() || entry.lastModified != jar.lastModified()) {
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized Entry getOrCreateEntry(File jar) {
+        Entry entry = getEntry(jar);
+        if (entry == null) {
+            entry = new Entry(jar.length(), jar.lastModified());
+            entries.put(jar.getName(), entry);
+        }
+        return entry;
+    }
+
+    private static final class Entry {
+        final long length;
+        final long lastModified;
+        volatile byte[] description;
+        volatile Set<String> packages;
+
+        Entry(final long length, final long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
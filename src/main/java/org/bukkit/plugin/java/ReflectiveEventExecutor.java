@@ -0,0 +1,36 @@
+package org.bukkit.plugin.java;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+/**
+ * Calls an event handler method through {@link Method#invoke(Object,
+ * Object...)}, used when the method cannot be bound directly
+ */
+final class ReflectiveEventExecutor implements EventExecutor {
+    private final Method method;
+    private final Class<? extends Event> eventClass;
+
+    ReflectiveEventExecutor(final Method method, final Class<? extends Event> eventClass) {
+        this.method = method;
+        this.eventClass = eventClass;
+    }
+
+    public void execute(Listener listener, Event event) throws EventException {
+        try {
+            if (!eventClass.isAssignableFrom(event.getClass())) {
+                return;
+            }
+            method.invoke(listener, event);
+        } catch (InvocationTargetException ex) {
+            throw new EventException(ex.getCause());
+        } catch (Throwable t) {
+            throw new EventException(t);
+        }
+    }
+}